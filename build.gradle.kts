@@ -12,6 +12,7 @@ repositories {
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 tasks.jar {
     manifest {
@@ -28,4 +29,37 @@ java {
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+// Project tree generator and HTTP load harness in src/harness, not part of build.
+// Run with: gradle harness -Pharness.args="--start --files 100000 --rate 200 --duration 30"
+val harness by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+tasks.register<JavaExec>("harness") {
+    description = "Runs the headless HTTP load harness. Arguments go to LoadHarness through -Pharness.args."
+    group = "benchmark"
+    classpath = harness.runtimeClasspath
+    mainClass.set("de.hype.LoadHarness")
+    args(providers.gradleProperty("harness.args").getOrElse("").split(" ").filter { it.isNotBlank() })
+}
+
+// JMH benchmarks in src/jmh, not part of build. Run with: gradle jmh -Pjmh.args="de.hype.LookupBenchmark -p files=10000"
+val jmh by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + harness.output
+    runtimeClasspath += sourceSets.main.get().output + harness.output
+}
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+tasks.register<JavaExec>("jmh") {
+    description = "Runs the JMH benchmarks. Arguments go to the JMH runner through -Pjmh.args."
+    group = "benchmark"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args(providers.gradleProperty("jmh.args").getOrElse("").split(" ").filter { it.isNotBlank() })
+}
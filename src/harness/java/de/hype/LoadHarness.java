@@ -0,0 +1,152 @@
+package de.hype;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives /open and /openResource of a running daemon at a fixed rate and reports latency percentiles and throughput.
+ * <p>
+ * Generates (or reuses) a Gradle and a Maven project under --root and, with --start, starts the daemon in this JVM
+ * headless on --port, so no window is ever touched and it runs in a plain container:
+ * <pre>
+ * gradle harness -Pharness.args="--start --files 100000 --rate 200 --duration 30"
+ * </pre>
+ * With --metrics the counters of the server's /metrics are printed afterwards.
+ * Without --start it talks to a daemon started with -Dhype.headless=true -Dhype.port=... -Dhype.projects=... .
+ */
+public class LoadHarness {
+    private final Map<String, String> options = new HashMap<>();
+    private final Set<String> flags = new HashSet<>();
+
+    private LoadHarness(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(args[i], args[++i]);
+            } else {
+                flags.add(args[i]);
+            }
+        }
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadHarness(args).run();
+    }
+
+    private void run() throws Exception {
+        Path root = Paths.get(option("--root", "build/harness-projects")).toAbsolutePath();
+        int files = Integer.parseInt(option("--files", "10000"));
+        int port = Integer.parseInt(option("--port", "9091"));
+        int rate = Integer.parseInt(option("--rate", "100"));
+        int duration = Integer.parseInt(option("--duration", "20"));
+
+        List<Query> queries = new ArrayList<>();
+        List<Query> warmUp = new ArrayList<>();
+        for (ProjectTreeGenerator.Layout layout : ProjectTreeGenerator.Layout.values()) {
+            String project = layout.name().toLowerCase() + "-" + files;
+            long start = System.currentTimeMillis();
+            ProjectTreeGenerator.Tree tree = ProjectTreeGenerator.generate(root.resolve(project), files, layout);
+            System.out.println("Project %s ready in %dms".formatted(project, System.currentTimeMillis() - start));
+            List<Query> projectQueries = queriesFor(project, tree);
+            warmUp.add(projectQueries.get(0));
+            queries.addAll(projectQueries);
+        }
+
+        if (flags.contains("--start")) {
+            System.setProperty("hype.headless", "true");
+            System.setProperty("hype.port", String.valueOf(port));
+            System.setProperty("hype.projects", root.toString());
+            Main.main(new String[0]);
+        }
+
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        String base = "http://localhost:" + port;
+        // the first request of a project crawls it, that is not what the load test is about
+        for (Query query : warmUp) {
+            long start = System.currentTimeMillis();
+            client.send(HttpRequest.newBuilder(URI.create(base + query.path())).build(), HttpResponse.BodyHandlers.discarding());
+            System.out.println("Warm up %s took %dms".formatted(query.path(), System.currentTimeMillis() - start));
+        }
+
+        System.out.println("Sending %d requests/s for %ds to %s".formatted(rate, duration, base));
+        int total = rate * duration;
+        long[] latencies = new long[total];
+        AtomicInteger completed = new AtomicInteger();
+        Map<String, AtomicInteger> statuses = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(total);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        long intervalNanos = 1_000_000_000L / rate;
+        AtomicInteger sent = new AtomicInteger();
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        // open loop: requests go out on schedule no matter how long earlier ones take
+        scheduler.scheduleAtFixedRate(() -> {
+            int number = sent.getAndIncrement();
+            if (number >= total) return;
+            Query query = queries.get(random.nextInt(queries.size()));
+            long sentAt = System.nanoTime();
+            client.sendAsync(HttpRequest.newBuilder(URI.create(base + query.path())).timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        latencies[completed.getAndIncrement()] = System.nanoTime() - sentAt;
+                        String status = error != null ? error.getClass().getSimpleName() : query.kind() + " " + response.statusCode();
+                        statuses.computeIfAbsent(status, k -> new AtomicInteger()).incrementAndGet();
+                        done.countDown();
+                    });
+        }, 0, intervalNanos, TimeUnit.NANOSECONDS);
+        boolean finished = done.await(duration + 60L, TimeUnit.SECONDS);
+        long elapsed = System.nanoTime() - start;
+        scheduler.shutdownNow();
+
+        int count = completed.get();
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        System.out.println("Completed %d of %d requests in %.1fs%s".formatted(count, total, elapsed / 1e9, finished ? "" : " (timed out)"));
+        System.out.println("Throughput: %.1f requests/s".formatted(count / (elapsed / 1e9)));
+        System.out.println("Latency p50 %s, p95 %s, p99 %s, max %s".formatted(
+                millis(sorted, 0.50), millis(sorted, 0.95), millis(sorted, 0.99), millis(sorted, 1.0)));
+        new TreeMap<>(statuses).forEach((status, number) -> System.out.println("  %-30s %d".formatted(status, number.get())));
+        if (flags.contains("--metrics")) {
+            // counters, sums and counts of the server, the buckets are left to a real scraper
+            String metrics = client.send(HttpRequest.newBuilder(URI.create(base + "/metrics")).build(), HttpResponse.BodyHandlers.ofString()).body();
+            metrics.lines().filter(line -> !line.startsWith("#") && !line.contains("_bucket")).forEach(line -> System.out.println("  " + line));
+        }
+        System.exit(0);
+    }
+
+    private static String millis(long[] sorted, double percentile) {
+        if (sorted.length == 0) return "-";
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1);
+        return "%.2fms".formatted(sorted[Math.max(0, index)] / 1e6);
+    }
+
+    private record Query(String kind, String path) {
+    }
+
+    private static List<Query> queriesFor(String project, ProjectTreeGenerator.Tree tree) {
+        List<Query> queries = new ArrayList<>();
+        for (String className : tree.classNames()) {
+            queries.add(new Query("class", "/open?project=%s&class=%s".formatted(project, className)));
+        }
+        for (String resource : tree.resourcePaths()) {
+            String fileName = resource.substring(resource.lastIndexOf('/') + 1);
+            queries.add(new Query("path", "/openResource?project=%s&path=%s".formatted(project, resource)));
+            queries.add(new Query("file name", "/openResource?project=%s&path=%s".formatted(project, fileName)));
+            queries.add(new Query("regex", "/openResource?project=%s&regex=%s".formatted(project,
+                    URLEncoder.encode(".*/" + fileName.replace(".", "\\."), StandardCharsets.UTF_8))));
+        }
+        return queries;
+    }
+}
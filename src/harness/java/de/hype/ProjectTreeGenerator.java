@@ -0,0 +1,127 @@
+package de.hype;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a fake ~/IdeaProjects style project with a given number of files: a Gradle or Maven multi module build with
+ * Java sources in many packages (simple names repeat across packages like in real projects), resources in main,
+ * test and generated resource roots and build output noise the crawler has to skip or ignore. A finished tree is
+ * reused, so only the first run of a size pays for writing it.
+ */
+class ProjectTreeGenerator {
+    private static final int FILES_PER_MODULE = 2000;
+    private static final int FILES_PER_PACKAGE = 40;
+    private static final int SIMPLE_NAMES = 500;
+    private static final int SAMPLE_EVERY = 97;
+    // one build output file per this many files, not counted in the file count
+    private static final int NOISE_EVERY = 20;
+
+    enum Layout {
+        GRADLE("build.gradle.kts", "build/generated/resources/main", "build/tmp/compileJava"),
+        MAVEN("pom.xml", "target/generated-resources", "target/classes");
+
+        private final String buildFile;
+        private final String generatedResources;
+        private final String noise;
+
+        Layout(String buildFile, String generatedResources, String noise) {
+            this.buildFile = buildFile;
+            this.generatedResources = generatedResources;
+            this.noise = noise;
+        }
+    }
+
+    /**
+     * @param classNames    fully qualified names of a sample of the generated classes.
+     * @param sourceFiles   the files of those classes, same order.
+     * @param resourcePaths resource root relative paths of a sample of the generated resources.
+     */
+    record Tree(Path root, List<String> classNames, List<Path> sourceFiles, List<String> resourcePaths) {
+    }
+
+    static Tree generate(Path root, int files) throws IOException {
+        return generate(root, files, Layout.GRADLE);
+    }
+
+    static Tree generate(Path root, int files, Layout layout) throws IOException {
+        Path marker = root.resolve(".generated");
+        boolean write = !Files.exists(marker);
+        List<String> classNames = new ArrayList<>();
+        List<Path> sourceFiles = new ArrayList<>();
+        List<String> resourcePaths = new ArrayList<>();
+        List<String> modules = new ArrayList<>();
+
+        for (int i = 0; i < files; i++) {
+            String module = "module" + i / FILES_PER_MODULE;
+            Path moduleDir = root.resolve(module);
+            if (i % FILES_PER_MODULE == 0) {
+                modules.add(module);
+                if (write) write(moduleDir.resolve(layout.buildFile), buildFile(layout, module, List.of()));
+            }
+            int kind = i % 10;
+            if (kind < 7) {
+                // consecutive files share a package, so the simple names within a package never collide
+                String packageName = "de.hype.gen." + module + ".p" + i / FILES_PER_PACKAGE;
+                String simpleName = "Type" + i % SIMPLE_NAMES;
+                Path file = moduleDir.resolve("src/main/java").resolve(packageName.replace('.', '/')).resolve(simpleName + ".java");
+                if (write) write(file, "package %s;\n\npublic class %s {\n}\n".formatted(packageName, simpleName));
+                if (i % SAMPLE_EVERY == 0) {
+                    classNames.add(packageName + "." + simpleName);
+                    sourceFiles.add(file);
+                }
+            } else {
+                String rootDir = switch (kind) {
+                    case 7 -> "src/main/resources";
+                    case 8 -> "src/test/resources";
+                    default -> layout.generatedResources;
+                };
+                String pattern = switch (kind) {
+                    case 7 -> "templates/t%d/r%d.html";
+                    case 8 -> "fixtures/f%d/r%d.json";
+                    default -> "generated/g%d/r%d.properties";
+                };
+                String resource = pattern.formatted(i / 100 % 20, i);
+                if (write) write(moduleDir.resolve(rootDir).resolve(resource), "r" + i + "\n");
+                if (i % SAMPLE_EVERY == 0) resourcePaths.add(resource);
+            }
+            if (write && i % NOISE_EVERY == 0) {
+                write(moduleDir.resolve(layout.noise).resolve("n" + i / 1000).resolve("noise" + i + ".bin"), "noise\n");
+            }
+        }
+        if (write) {
+            if (layout == Layout.GRADLE) {
+                StringBuilder settings = new StringBuilder("rootProject.name = \"generated\"\n");
+                for (String module : modules) {
+                    settings.append("include(\"").append(module).append("\")\n");
+                }
+                write(root.resolve("settings.gradle.kts"), settings.toString());
+            } else {
+                write(root.resolve("pom.xml"), buildFile(layout, "generated", modules));
+            }
+            write(marker, files + " " + layout + "\n");
+        }
+        return new Tree(root, classNames, sourceFiles, resourcePaths);
+    }
+
+    private static String buildFile(Layout layout, String name, List<String> modules) {
+        if (layout == Layout.GRADLE) return "plugins {\n    java\n}\n";
+        StringBuilder pom = new StringBuilder("<project>\n    <artifactId>").append(name).append("</artifactId>\n");
+        if (!modules.isEmpty()) {
+            pom.append("    <packaging>pom</packaging>\n    <modules>\n");
+            for (String module : modules) {
+                pom.append("        <module>").append(module).append("</module>\n");
+            }
+            pom.append("    </modules>\n");
+        }
+        return pom.append("</project>\n").toString();
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+}
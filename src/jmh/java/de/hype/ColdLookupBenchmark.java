@@ -0,0 +1,44 @@
+package de.hype;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold lookups: the index is dropped before every invocation, so each one measures the first request for a project
+ * after the daemon started without a snapshot, crawl included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ColdLookupBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int files;
+
+    private ProjectTreeGenerator.Tree tree;
+    private final OpenResourceHandler resourceHandler = new OpenResourceHandler();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tree = ProjectTreeGenerator.generate(LookupBenchmark.treeRoot(files), files);
+    }
+
+    @Setup(Level.Invocation)
+    public void evict() {
+        ProjectIndex.evict(tree.root());
+    }
+
+    @Benchmark
+    public String searchClassFile() {
+        return OpenHandler.searchClassFile(tree.classNames().get(0), tree.root());
+    }
+
+    @Benchmark
+    public Object findResourcesByPath() throws IOException {
+        return resourceHandler.findResourcesByPath(tree.resourcePaths().get(0), tree.root(), false);
+    }
+}
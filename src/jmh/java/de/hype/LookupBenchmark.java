@@ -0,0 +1,87 @@
+package de.hype;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warm lookups: the project is indexed once per trial, every invocation is a request against the built index.
+ * Run with {@code gradle jmh -Pjmh.args="de.hype.LookupBenchmark -p files=10000"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LookupBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int files;
+
+    private ProjectTreeGenerator.Tree tree;
+    private final OpenResourceHandler resourceHandler = new OpenResourceHandler();
+    private int next = 0;
+
+    static Path treeRoot(int files) {
+        return Paths.get(System.getProperty("hype.jmh.trees", "build/jmh-trees")).toAbsolutePath().resolve("project-" + files);
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tree = ProjectTreeGenerator.generate(treeRoot(files), files);
+        ProjectIndex.get(tree.root());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ProjectIndex.evict(tree.root());
+    }
+
+    private int nextIndex(int size) {
+        next = (next + 1) % size;
+        return next;
+    }
+
+    @Benchmark
+    public String searchClassFile() {
+        return OpenHandler.searchClassFile(tree.classNames().get(nextIndex(tree.classNames().size())), tree.root());
+    }
+
+    @Benchmark
+    public Object findResourcesByPath() throws IOException {
+        return resourceHandler.findResourcesByPath(tree.resourcePaths().get(nextIndex(tree.resourcePaths().size())), tree.root(), false);
+    }
+
+    @Benchmark
+    public Object findResourcesByFileName() throws IOException {
+        String path = tree.resourcePaths().get(nextIndex(tree.resourcePaths().size()));
+        return resourceHandler.findResourcesByPath(path.substring(path.lastIndexOf('/') + 1), tree.root(), false);
+    }
+
+    @Benchmark
+    public Object findResourcesByGlob() throws IOException {
+        String path = tree.resourcePaths().get(nextIndex(tree.resourcePaths().size()));
+        return resourceHandler.findResourcesByPath("**/" + path.substring(path.lastIndexOf('/') + 1), tree.root(), false);
+    }
+
+    @Benchmark
+    public Object findResourcesByRegex() throws IOException {
+        String path = tree.resourcePaths().get(nextIndex(tree.resourcePaths().size()));
+        return resourceHandler.findResourcesByRegex(".*/" + path.substring(path.lastIndexOf('/') + 1).replace(".", "\\."), tree.root(), false);
+    }
+
+    @Benchmark
+    public String convertToGlobPattern() {
+        return resourceHandler.convertToGlobPattern("templates/**/t" + nextIndex(20) + "/*.html");
+    }
+
+    @Benchmark
+    public boolean isCorrectPackage() {
+        int index = nextIndex(tree.classNames().size());
+        String className = tree.classNames().get(index);
+        return OpenHandler.isCorrectPackage(tree.sourceFiles().get(index), className.substring(0, className.lastIndexOf('.')).replace('.', '/'));
+    }
+}
@@ -0,0 +1,95 @@
+package de.hype;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Runs the focus work of {@link IntelijHandler} one project at a time, latest request wins.
+ * <p>
+ * Clicking through several links in a row should not replay a full reorder / focus cycle for each of them. A request
+ * for a project that already has one waiting replaces it, and if the project is being focused right now the running
+ * cycle stops waiting for IntelliJ. The navigation URL of a dropped request is still passed to IntelliJ right away,
+ * only the window work is skipped.
+ */
+class FocusScheduler {
+    // project -> navigation URL of the latest request not started yet, in arrival order. Guarded by the class lock.
+    private static final Map<String, String> PENDING = new LinkedHashMap<>();
+    private static final String REQUESTS_HELP = "Focus requests submitted, dropped for a newer one of the same project and executed.";
+    private static final Metrics.Counter SUBMITTED = Metrics.counter("hype_focus_requests_total", REQUESTS_HELP, "state", "submitted");
+    private static final Metrics.Counter DROPPED = Metrics.counter("hype_focus_requests_total", REQUESTS_HELP, "state", "dropped");
+    private static final Metrics.Counter EXECUTED = Metrics.counter("hype_focus_requests_total", REQUESTS_HELP, "state", "executed");
+
+    static {
+        Metrics.gauge("hype_focus_queue_depth", "Focus requests waiting, not counting the running one.", FocusScheduler::getQueueDepth);
+    }
+    private static String running;
+    private static boolean draining = false;
+    private static volatile boolean runningSuperseded = false;
+
+    static void submit(String project, String redirectUrl) {
+        String dropped;
+        synchronized (FocusScheduler.class) {
+            SUBMITTED.increment();
+            dropped = PENDING.remove(project);
+            PENDING.put(project, redirectUrl);
+            if (Objects.equals(project, running)) runningSuperseded = true;
+            if (!draining) {
+                draining = true;
+                RequestExecutor.submitWindowTask(FocusScheduler::drain);
+            }
+        }
+        if (dropped != null) {
+            DROPPED.increment();
+            System.out.println("Dropped focus of %s for a newer request (%d dropped so far)".formatted(project, DROPPED.get()));
+            IntelijHandler.browse(project, dropped);
+        }
+    }
+
+    private static void drain() {
+        while (true) {
+            String project;
+            String redirectUrl;
+            synchronized (FocusScheduler.class) {
+                Iterator<Map.Entry<String, String>> next = PENDING.entrySet().iterator();
+                if (!next.hasNext()) {
+                    running = null;
+                    draining = false;
+                    return;
+                }
+                Map.Entry<String, String> entry = next.next();
+                next.remove();
+                project = entry.getKey();
+                redirectUrl = entry.getValue();
+                running = project;
+                runningSuperseded = false;
+            }
+            try {
+                IntelijHandler.focus(project, redirectUrl, () -> runningSuperseded);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            EXECUTED.increment();
+        }
+    }
+
+    /**
+     * @return the number of focus operations waiting, not counting the running one.
+     */
+    static synchronized int getQueueDepth() {
+        return PENDING.size();
+    }
+
+    static long getSubmittedCount() {
+        return SUBMITTED.get();
+    }
+
+    static long getDroppedCount() {
+        return DROPPED.get();
+    }
+
+    static long getExecutedCount() {
+        return EXECUTED.get();
+    }
+}
@@ -0,0 +1,149 @@
+package de.hype;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The rules of one .gitignore / .ignore file, compiled once when the file is read.
+ * Paths are matched relative to the directory the file is in, with '/' as separator.
+ */
+class IgnoreRules {
+    static final IgnoreRules EMPTY = new IgnoreRules(List.of());
+
+    private record Rule(Pattern pattern, boolean negated, boolean directoryOnly) {
+    }
+
+    private final List<Rule> rules;
+
+    private IgnoreRules(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Reads and combines the given ignore files of one directory. Missing files are skipped.
+     */
+    static IgnoreRules read(Path directory, String... fileNames) {
+        List<String> lines = new ArrayList<>();
+        for (String fileName : fileNames) {
+            try {
+                lines.addAll(Files.readAllLines(directory.resolve(fileName)));
+            } catch (NoSuchFileException ignored) {
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return lines.isEmpty() ? EMPTY : parse(lines);
+    }
+
+    static IgnoreRules parse(Collection<String> lines) {
+        List<Rule> rules = new ArrayList<>();
+        for (String line : lines) {
+            Rule rule = compile(line);
+            if (rule != null) rules.add(rule);
+        }
+        return rules.isEmpty() ? EMPTY : new IgnoreRules(rules);
+    }
+
+    /**
+     * @return rules that apply the higher precedence rules after the lower ones, so they win on conflicts.
+     */
+    static IgnoreRules combine(IgnoreRules lower, IgnoreRules higher) {
+        List<Rule> rules = new ArrayList<>(lower.rules);
+        rules.addAll(higher.rules);
+        return new IgnoreRules(rules);
+    }
+
+    boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * @return {@link Boolean#TRUE} if the path is ignored, {@link Boolean#FALSE} if a negated rule re-includes it and
+     * null if no rule matches, in which case the rules of the parent directories decide.
+     */
+    Boolean match(String relativePath, boolean directory) {
+        // the last matching rule wins
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            Rule rule = rules.get(i);
+            if (rule.directoryOnly && !directory) continue;
+            if (rule.pattern.matcher(relativePath).matches()) {
+                return !rule.negated;
+            }
+        }
+        return null;
+    }
+
+    private static Rule compile(String line) {
+        if (line.isEmpty() || line.startsWith("#")) return null;
+        // trailing spaces are ignored unless escaped
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) end--;
+        line = line.substring(0, end);
+        if (line.isEmpty()) return null;
+
+        boolean negated = false;
+        if (line.startsWith("!")) {
+            negated = true;
+            line = line.substring(1);
+        } else if (line.startsWith("\\!") || line.startsWith("\\#")) {
+            line = line.substring(1);
+        }
+        boolean directoryOnly = false;
+        if (line.endsWith("/")) {
+            directoryOnly = true;
+            line = line.substring(0, line.length() - 1);
+        }
+        if (line.isEmpty()) return null;
+        // a slash at the beginning or in the middle anchors the pattern to the directory of the ignore file
+        boolean anchored = line.indexOf('/') >= 0;
+        if (line.startsWith("/")) line = line.substring(1);
+
+        StringBuilder regex = new StringBuilder();
+        if (!anchored) regex.append("(?:.*/)?");
+        int length = line.length();
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (c == '*' && i + 1 < length && line.charAt(i + 1) == '*'
+                    && (i == 0 || line.charAt(i - 1) == '/')
+                    && (i + 2 == length || line.charAt(i + 2) == '/')) {
+                if (i + 2 == length) {
+                    regex.append(".*"); // trailing /** matches everything inside
+                } else {
+                    regex.append("(?:.*/)?"); // **/ matches zero or more directories
+                    i++;
+                }
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else if (c == '[') {
+                int close = line.indexOf(']', i + 2);
+                if (close < 0) {
+                    regex.append("\\[");
+                    continue;
+                }
+                String set = line.substring(i + 1, close);
+                if (set.startsWith("!")) set = "^" + set.substring(1);
+                regex.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                i = close;
+            } else if (c == '\\' && i + 1 < length) {
+                regex.append(Pattern.quote(String.valueOf(line.charAt(++i))));
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        try {
+            return new Rule(Pattern.compile(regex.toString()), negated, directoryOnly);
+        } catch (Exception e) {
+            System.err.println("Skipping invalid ignore pattern: " + line);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package de.hype;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists {@link ProjectIndex}es to ~/.cache so a restarted daemon does not have to crawl the projects again.
+ * <p>
+ * A snapshot is a compact binary file that is read completely and decoded into the index on startup.
+ * <p>
+ * Format (all numbers are unsigned LEB128 varints unless noted):
+ * <pre>
+ * int magic, int version        (fixed 4 byte big endian)
+ * string projectPath
+ * count, count x (path, mtime)  directories
+ * count, count x path           indexed files (sources, resources and build files)
+ * </pre>
+ * Paths are relative to the project, sorted and front coded: the number of bytes shared with the previous path
+ * followed by the remaining bytes. Strings are length prefixed UTF-8.
+ */
+class IndexSnapshot {
+    private static final int MAGIC = 0x48494458; // HIDX
+    private static final int VERSION = 2;
+    private static final long WRITE_INTERVAL_SECONDS = 30;
+    private static final Path CACHE_DIRECTORY = Paths.get(System.getProperty("user.home"), ".cache", "hype-intellij-redirector", "indexes");
+
+    private static ScheduledExecutorService writer;
+
+    record Contents(Path projectPath, Map<Path, Long> directories, List<Path> files) {
+    }
+
+    /**
+     * Reads and restores every snapshot in the cache directory. Restored indexes are validated in the background.
+     */
+    static void loadAll() {
+        if (!Files.isDirectory(CACHE_DIRECTORY)) return;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(CACHE_DIRECTORY, "*.idx")) {
+            for (Path snapshot : stream) {
+                long start = System.currentTimeMillis();
+                if (!load(snapshot)) {
+                    System.err.println("Discarding unreadable index snapshot " + snapshot);
+                    Files.deleteIfExists(snapshot);
+                    continue;
+                }
+                System.out.println("Loaded index snapshot %s in %dms".formatted(snapshot.getFileName(), System.currentTimeMillis() - start));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Periodically writes every index that changed since it was last written.
+     */
+    static synchronized void startWriter() {
+        if (writer != null) return;
+        writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "IndexSnapshotWriter");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(IndexSnapshot::writeChanged, WRITE_INTERVAL_SECONDS, WRITE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static void writeChanged() {
+        ProjectHistory.saveIfChanged();
+        for (ProjectIndex index : ProjectIndex.getLoadedIndexes()) {
+            if (!index.isBuilt() || !index.consumeDirty()) continue;
+            try {
+                write(index);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static Path snapshotPath(Path projectPath) {
+        return CACHE_DIRECTORY.resolve("%s-%08x.idx".formatted(projectPath.getFileName(), projectPath.toString().hashCode()));
+    }
+
+    static void write(ProjectIndex index) throws IOException {
+        Path projectPath = index.getProjectPath();
+        byte[] bytes = encode(projectPath, index.getDirectoryMtimes(), index.getIndexedFiles());
+
+        Files.createDirectories(CACHE_DIRECTORY);
+        Path target = snapshotPath(projectPath);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(temp, bytes);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static byte[] encode(Path projectPath, Map<Path, Long> directories, Collection<Path> files) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeBytes(out, projectPath.toString().getBytes(StandardCharsets.UTF_8));
+
+        TreeMap<String, Long> sortedDirectories = new TreeMap<>();
+        directories.forEach((dir, mtime) -> sortedDirectories.put(relativize(projectPath, dir), mtime));
+        writeVarLong(out, sortedDirectories.size());
+        byte[] previous = new byte[0];
+        for (Map.Entry<String, Long> entry : sortedDirectories.entrySet()) {
+            previous = writeFrontCoded(out, previous, entry.getKey().getBytes(StandardCharsets.UTF_8));
+            writeVarLong(out, entry.getValue());
+        }
+
+        List<String> sortedFiles = new ArrayList<>(files.size());
+        for (Path file : files) {
+            sortedFiles.add(relativize(projectPath, file));
+        }
+        Collections.sort(sortedFiles);
+        writeVarLong(out, sortedFiles.size());
+        previous = new byte[0];
+        for (String file : sortedFiles) {
+            previous = writeFrontCoded(out, previous, file.getBytes(StandardCharsets.UTF_8));
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restores the index of the snapshot. Any failure, including a corrupt file, only discards this snapshot.
+     */
+    private static boolean load(Path snapshot) {
+        try {
+            Contents contents = decode(ByteBuffer.wrap(Files.readAllBytes(snapshot)));
+            if (contents == null || !Files.isDirectory(contents.projectPath())) return false;
+            ProjectIndex.restore(contents.projectPath(), contents.directories(), contents.files());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * @return the contents of the snapshot, null if it has another format or version.
+     * @throws IllegalArgumentException if the snapshot is corrupt.
+     * @throws BufferUnderflowException if the snapshot is truncated.
+     */
+    static Contents decode(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+        Path projectPath = Paths.get(new String(readBytes(buffer), StandardCharsets.UTF_8));
+
+        // every entry takes at least 3 (directory) or 2 (file) bytes, larger counts can only come from a corrupt file
+        int directoryCount = readLength(buffer, buffer.remaining() / 3);
+        Map<Path, Long> directories = new HashMap<>(directoryCount * 2);
+        byte[] previous = new byte[0];
+        for (int i = 0; i < directoryCount; i++) {
+            previous = readFrontCoded(buffer, previous);
+            directories.put(resolve(projectPath, previous), readVarLong(buffer));
+        }
+
+        int fileCount = readLength(buffer, buffer.remaining() / 2);
+        List<Path> files = new ArrayList<>(fileCount);
+        previous = new byte[0];
+        for (int i = 0; i < fileCount; i++) {
+            previous = readFrontCoded(buffer, previous);
+            files.add(resolve(projectPath, previous));
+        }
+        return new Contents(projectPath, directories, files);
+    }
+
+    private static String relativize(Path projectPath, Path path) {
+        return projectPath.relativize(path).toString();
+    }
+
+    private static Path resolve(Path projectPath, byte[] relativePath) {
+        return projectPath.resolve(new String(relativePath, StandardCharsets.UTF_8));
+    }
+
+    private static byte[] writeFrontCoded(DataOutputStream out, byte[] previous, byte[] current) throws IOException {
+        int shared = 0;
+        int max = Math.min(previous.length, current.length);
+        while (shared < max && previous[shared] == current[shared]) shared++;
+        writeVarLong(out, shared);
+        writeVarLong(out, current.length - shared);
+        out.write(current, shared, current.length - shared);
+        return current;
+    }
+
+    private static byte[] readFrontCoded(ByteBuffer buffer, byte[] previous) {
+        int shared = readLength(buffer, previous.length);
+        int suffix = readLength(buffer, buffer.remaining());
+        byte[] current = new byte[shared + suffix];
+        System.arraycopy(previous, 0, current, 0, shared);
+        buffer.get(current, shared, suffix);
+        return current;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[readLength(buffer, buffer.remaining())];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is larger than max.
+     */
+    private static int readLength(ByteBuffer buffer, int max) {
+        long length = readVarLong(buffer);
+        if (length < 0 || length > max) throw new IllegalArgumentException("Corrupt length " + length + ", at most " + max + " expected");
+        return (int) length;
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 63) throw new IllegalArgumentException("Malformed varint");
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -5,11 +5,33 @@ import com.sun.net.httpserver.HttpExchange;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
 
 import static de.hype.Main.isValidUrl;
 
 public class IntelijHandler {
+    // how long to wait at most for IntelliJ to react to the URL if the project already has a window
+    private static final long FOCUS_TIMEOUT_MS = Long.getLong("hype.focus.timeout", 10000);
+    // upper bound for projects that have to be opened first, the learned open time may push the timeout up to this
+    private static final long OPEN_TIMEOUT_MS = Long.getLong("hype.focus.openTimeout", 60000);
+    private static final long DEFAULT_OPEN_MS = 5000;
+    private static final long MIN_POLL_MS = 25;
+    private static final long MAX_POLL_MS = 400;
+    // how long it took for the window of a project to appear when it was not open yet (moving average per project)
+    private static final Map<String, Long> EXPECTED_OPEN_MS = new ConcurrentHashMap<>();
+    private static final String PHASE_HELP = "Time spent in the phases of focusing the IntelliJ window.";
+    private static final Metrics.Histogram TOTAL_TIME = Metrics.timer("hype_focus_phase_seconds", PHASE_HELP, "phase", "total");
+    private static final Metrics.Histogram ENUMERATE_TIME = Metrics.timer("hype_focus_phase_seconds", PHASE_HELP, "phase", "enumerate");
+    private static final Metrics.Histogram STACK_TIME = Metrics.timer("hype_focus_phase_seconds", PHASE_HELP, "phase", "stack");
+    private static final Metrics.Histogram BROWSE_TIME = Metrics.timer("hype_focus_phase_seconds", PHASE_HELP, "phase", "browse");
+    private static final Metrics.Histogram WAIT_TIME = Metrics.timer("hype_focus_phase_seconds", PHASE_HELP, "phase", "wait");
+    private static final Metrics.Histogram RESTORE_TIME = Metrics.timer("hype_focus_phase_seconds", PHASE_HELP, "phase", "restore");
+    private static final String WAIT_HELP = "Waits for IntelliJ by how they ended.";
+    private static final Metrics.Counter WAIT_REACTED = Metrics.counter("hype_focus_waits_total", WAIT_HELP, "result", "reacted");
+    private static final Metrics.Counter WAIT_SUPERSEDED = Metrics.counter("hype_focus_waits_total", WAIT_HELP, "result", "superseded");
+    private static final Metrics.Counter WAIT_TIMED_OUT = Metrics.counter("hype_focus_waits_total", WAIT_HELP, "result", "timeout");
+
     static void openFileInIntelliJ(HttpExchange exchange, String project, String path, String line) throws IOException {
         String redirectUrl = "jetbrains://idea/navigate/reference?project=" + project + "&path=" + path;
         if (line != null) {
@@ -28,85 +50,183 @@ public class IntelijHandler {
         focusIntelliJWindow(project, redirectUrl);
     }
 
-    static synchronized void focusIntelliJWindow(String projectName, String redirectUrl) {
+    /**
+     * Answers a request that was superseded by an identical one, only closes the tab without opening anything.
+     */
+    static void sendCloseTab(HttpExchange exchange) throws IOException {
+        String closeTabScript = "<html><body><script type='text/javascript'>window.close();</script></body></html>";
+        exchange.getResponseHeaders().set("Content-Type", "text/html");
+        exchange.sendResponseHeaders(200, closeTabScript.length());
+        OutputStream os = exchange.getResponseBody();
+        os.write(closeTabScript.getBytes());
+        os.close();
+    }
+
+    /**
+     * Opens the URL and brings the project window to the front. Goes through the {@link FocusScheduler}, the caller
+     * does not wait.
+     */
+    static void focusIntelliJWindow(String projectName, String redirectUrl) {
+        if (Main.HEADLESS) {
+            System.out.println("Headless, not opening " + redirectUrl);
+            return;
+        }
+        FocusScheduler.submit(projectName, redirectUrl);
+    }
+
+    /**
+     * Only passes the URL to IntelliJ, without touching any window. Used for navigations whose focus work was dropped.
+     */
+    static void browse(String projectName, String redirectUrl) {
         try {
             if (!isValidProjectName(projectName) || !isValidUrl(redirectUrl)) {
                 throw new IllegalArgumentException("Invalid project name or URL");
             }
+            java.awt.Desktop.getDesktop().browse(new java.net.URI(redirectUrl));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
-            //get the right intelij window and mark always on top as well as all the other in front windows.
-            LinkedHashMap<String, Window> originalWindows = new LinkedHashMap<>();
-            LinkedHashMap<String, Window> currentWindows = new LinkedHashMap<>();
-            for (Window window : Window.getCurrentWindows()) {
-                originalWindows.put(window.getId(), window.copy());
-                currentWindows.put(window.getId(), window);
+    /**
+     * @param superseded becomes true once a newer request for the same project is waiting, the wait for IntelliJ is cut short then.
+     */
+    static void focus(String projectName, String redirectUrl, BooleanSupplier superseded) {
+        long focusStart = System.nanoTime();
+        try {
+            if (!isValidProjectName(projectName) || !isValidUrl(redirectUrl)) {
+                throw new IllegalArgumentException("Invalid project name or URL");
             }
-            Window targetWindow = null;
+
+            //get the right intelij window and mark always on top as well as all the other in front windows.
+            long start = System.nanoTime();
+            String activeWindowId = Window.getActiveWindowId();
+            List<Window> windows = Window.getCurrentWindows();
+            String titlePrefix = projectName + " – ";
+            WindowRegistry registry = WindowRegistry.get();
+            // the registry keeps the windows by title prefix, only the fallback has to go through all of them
+            Window targetWindow = registry != null ? registry.findByTitlePrefix(titlePrefix) : Window.findByTitlePrefix(windows, titlePrefix);
+            ENUMERATE_TIME.recordSince(start);
+            start = System.nanoTime();
             Window originalTargetWindow = null;
-            for (Window window : currentWindows.values()) {
-                if (window.getWindowName().matches("%s – .*".formatted(Pattern.quote(projectName)))) {
-                    targetWindow = window;
-                    originalTargetWindow = originalWindows.get(window.getId());
-                    targetWindow.setAlwaysOnTop(true);
-                } else {
-                    if (window.getProgrammName().equals("intelij-idea")) {
-                        window.setAlwaysOnTop(false);
-                        window.setAlwaysOnBottom(true);
-                    }
+            if (targetWindow != null) {
+                originalTargetWindow = targetWindow.copy();
+                targetWindow.setAlwaysOnTop(true);
+            }
+            // only the windows changed here are remembered, to be restored later
+            List<Window> changedWindows = new ArrayList<>();
+            Map<String, Window> originalWindows = new HashMap<>();
+            for (Window window : windows) {
+                if (targetWindow != null && window.getId().equals(targetWindow.getId())) continue;
+                if (window.getProgrammName().equals("intelij-idea")) {
+                    originalWindows.put(window.getId(), window.copy());
+                    changedWindows.add(window);
+                    window.setAlwaysOnTop(false);
+                    window.setAlwaysOnBottom(true);
                 }
             }
+            STACK_TIME.recordSince(start);
             // Open URL
+            start = System.nanoTime();
             java.awt.Desktop.getDesktop().browse(new java.net.URI(redirectUrl));
+            BROWSE_TIME.recordSince(start);
 
-            // Wait for IntelliJ to process the URI
-            Thread.sleep(10000);
-
-            if (targetWindow == null) {
+            start = System.nanoTime();
+            if (targetWindow != null) {
+                // Wait for IntelliJ to process the URI
+                waitForNavigation(targetWindow, activeWindowId, superseded);
+            } else {
                 //This means Intelij will have been opened for it.
-                for (Window window : Window.getCurrentWindows()) {
-                    if (window.getWindowName().matches("%s - .*".formatted(Pattern.quote(projectName)))) {
-                        targetWindow = window;
-                        Window copy = window.copy();
-                        originalWindows.put(copy.getId(), copy);
-                        originalTargetWindow = copy;
-                        currentWindows.put(window.getId(), window);
-                        targetWindow.setAlwaysOnTop(true);
-                    }
-                }
-                if (targetWindow == null) return; //This means Error or sth.
-            }
-            restoreWindowOrder(originalWindows.values());
-
-            for (Window currentWindow : currentWindows.values()) {
-                Window originalWindow = originalWindows.get(currentWindow.getId());
-                currentWindow.setAlwaysOnTop(originalWindow.isAlwaysOnTop());
-                currentWindow.setAlwaysOnBottom(originalWindow.isAlwaysOnBottom());
+                Window window = waitForNewWindow(projectName);
+                if (window == null) return; //This means Error or sth.
+                targetWindow = window;
+                originalTargetWindow = window.copy();
+                targetWindow.setAlwaysOnTop(true);
             }
+            WAIT_TIME.recordSince(start);
+            start = System.nanoTime();
+            // only undo what was changed above, every other window stays untouched. The target stays on top until it has focus.
+            int restored = Window.restoreStates(changedWindows, originalWindows);
+            System.out.println("Restored the state of %d of %d windows".formatted(restored, changedWindows.size()));
 
             targetWindow.setAsFocus();
             targetWindow.setAlwaysOnTop(originalTargetWindow.isAlwaysOnTop());
             targetWindow.setAlwaysOnBottom(originalTargetWindow.isAlwaysOnBottom());
-
-
+            RESTORE_TIME.recordSince(start);
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            TOTAL_TIME.recordSince(focusStart);
         }
     }
 
-    public static void restoreWindowOrder(Collection<Window> desiredOrder) {
-        for (Window windowId : desiredOrder) {
-            try {
-                // Bring the window to the top of the stack
-                ProcessBuilder pb = new ProcessBuilder("wmctrl", "-r", windowId.getId(), "-b", "add,above");
-                Process process = pb.start();
-                process.waitFor();
-            } catch (Exception e) {
-                e.printStackTrace();
+    /**
+     * Waits until IntelliJ reacted to the URL: the title of the project window changes (the file is shown) or another
+     * window got focused. Woken up by the X events of the {@link WindowRegistry}, without it polls with a growing
+     * interval, so a quick jump is noticed within a few milliseconds either way.
+     */
+    private static void waitForNavigation(Window targetWindow, String activeWindowId, BooleanSupplier superseded) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long interval = MIN_POLL_MS;
+        WindowRegistry registry = WindowRegistry.get();
+        long version = registry == null ? 0 : registry.getVersion();
+        while (System.currentTimeMillis() - start < FOCUS_TIMEOUT_MS) {
+            if (registry != null) {
+                // woken up by the X events of the registry instead of polling
+                version = registry.awaitChange(version, Math.min(MAX_POLL_MS, FOCUS_TIMEOUT_MS - (System.currentTimeMillis() - start)));
+            } else {
+                Thread.sleep(interval);
+                interval = Math.min(interval * 2, MAX_POLL_MS);
+            }
+            if (superseded.getAsBoolean()) {
+                System.out.println("Newer request for the same project waiting, not waiting for IntelliJ any longer");
+                WAIT_SUPERSEDED.increment();
+                return;
+            }
+            String active = Window.getActiveWindowId();
+            String title = Window.getWindowName(targetWindow.getId());
+            if ((active != null && !Window.isSameId(active, activeWindowId)) || (title != null && !title.equals(targetWindow.getWindowName()))) {
+                System.out.println("IntelliJ reacted after %dms".formatted(System.currentTimeMillis() - start));
+                WAIT_REACTED.increment();
+                return;
+            }
+        }
+        System.out.println("No reaction of IntelliJ within %dms".formatted(FOCUS_TIMEOUT_MS));
+        WAIT_TIMED_OUT.increment();
+    }
+
+    /**
+     * Waits for the window of a project that was not open yet. Without X events polling only starts shortly before
+     * the window is expected, based on how long opening the project took the last times.
+     */
+    private static Window waitForNewWindow(String projectName) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long expected = EXPECTED_OPEN_MS.getOrDefault(projectName, DEFAULT_OPEN_MS);
+        long timeout = Math.min(Math.max(expected * 3, FOCUS_TIMEOUT_MS), OPEN_TIMEOUT_MS);
+        WindowRegistry registry = WindowRegistry.get();
+        long version = registry == null ? 0 : registry.getVersion();
+        if (registry == null) Thread.sleep(expected / 2);
+        while (System.currentTimeMillis() - start < timeout) {
+            Window window = Window.findByTitlePrefix(projectName + " - ");
+            if (window != null) {
+                long took = System.currentTimeMillis() - start;
+                EXPECTED_OPEN_MS.merge(projectName, took, (old, now) -> (old * 7 + now * 3) / 10);
+                System.out.println("Window of %s appeared after %dms".formatted(projectName, took));
+                WAIT_REACTED.increment();
+                return window;
+            }
+            if (registry != null) {
+                version = registry.awaitChange(version, timeout - (System.currentTimeMillis() - start));
+            } else {
+                Thread.sleep(MAX_POLL_MS);
             }
         }
+        System.out.println("No window for %s appeared within %dms".formatted(projectName, timeout));
+        WAIT_TIMED_OUT.increment();
+        return null;
     }
 
-    private static boolean isValidProjectName(String projectName) {
+    static boolean isValidProjectName(String projectName) {
         return projectName != null && projectName.matches("^[a-zA-Z0-9_-]+$");
     }
 
@@ -0,0 +1,118 @@
+package de.hype;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder events of the request lifecycle. Start a recording with
+ * {@code java -XX:StartFlightRecording=filename=hype.jfr -jar ...} or attach JMC, then {@code jfr print --categories Hype hype.jfr}.
+ * While no recording is running begin / commit are no-ops the JIT removes, so the events stay in place in production.
+ */
+class JfrEvents {
+    private JfrEvents() {
+    }
+
+    @Name("de.hype.Request")
+    @Label("Request")
+    @Category("Hype")
+    @Description("One /open or /openResource request, from parsing to the response")
+    static class Request extends Event {
+        @Label("Project")
+        String project;
+        @Label("Query Kind")
+        @Description("class, path or regex")
+        String kind;
+        @Label("Query")
+        String query;
+        @Label("Status")
+        int status;
+        @Label("Match Count")
+        int matches;
+        @Label("Superseded")
+        @Description("An identical request came in meanwhile and opened IntelliJ instead")
+        boolean superseded;
+    }
+
+    @Name("de.hype.ParseRequest")
+    @Label("Parse Request")
+    @Category("Hype")
+    static class ParseRequest extends Event {
+        @Label("Query")
+        String query;
+    }
+
+    @Name("de.hype.ResolveProject")
+    @Label("Resolve Project")
+    @Category("Hype")
+    @Description("Getting the index of a project, crawling it if it was not built yet")
+    static class ResolveProject extends Event {
+        @Label("Project Path")
+        String projectPath;
+        @Label("Crawled")
+        boolean crawled;
+    }
+
+    @Name("de.hype.Walk")
+    @Label("Tree Walk")
+    @Category("Hype")
+    static class Walk extends Event {
+        @Label("Start")
+        String start;
+        @Label("Max Depth")
+        int maxDepth;
+        @Label("Files Visited")
+        long filesVisited;
+        @Label("Directories Skipped")
+        long directoriesSkipped;
+    }
+
+    @Name("de.hype.PackageCheck")
+    @Label("Package Check")
+    @Category("Hype")
+    @Description("Reading the package headers of the candidate files of a class")
+    static class PackageCheck extends Event {
+        @Label("Package")
+        String packageName;
+        @Label("Candidates")
+        int candidates;
+        @Label("Match")
+        String match;
+    }
+
+    @Name("de.hype.ResourceSearch")
+    @Label("Resource Search")
+    @Category("Hype")
+    static class ResourceSearch extends Event {
+        @Label("Pattern")
+        String pattern;
+        @Label("Query Kind")
+        String kind;
+        @Label("Files Visited")
+        long filesVisited;
+        @Label("Match Count")
+        int matches;
+    }
+
+    @Name("de.hype.ProcessStart")
+    @Label("Process Start")
+    @Category("Hype")
+    @Description("Spawning an external tool like wmctrl or xprop, without waiting for it")
+    static class ProcessStart extends Event {
+        @Label("Command")
+        String command;
+        @Label("PID")
+        long pid;
+    }
+
+    @Name("de.hype.Dialog")
+    @Label("Dialog")
+    @Category("Hype")
+    @Description("A Swing dialog, from showing it until it was answered or closed")
+    static class Dialog extends Event {
+        @Label("Title")
+        String title;
+        @Label("Options")
+        int options;
+        @Label("Choice")
+        String choice;
+    }
+}
@@ -6,12 +6,16 @@ import com.sun.net.httpserver.HttpServer;
 
 import javax.swing.*;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.BindException;
 import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -29,27 +33,120 @@ public class Main {
     public Main() throws IOException {
     }
 
+    static final int PORT = Integer.getInteger("hype.port", 9090);
+    private static final String PROJECTS_DIR = System.getProperty("hype.projects", "~/IdeaProjects");
+    // no windows, dialogs or desktop integration, for load tests in a plain container
+    static final boolean HEADLESS = Boolean.getBoolean("hype.headless");
+    private static final long BIND_TIMEOUT_MS = 3000;
+    private static final Path TOOL_CACHE = Paths.get(System.getProperty("user.home"), ".cache", "hype-intellij-redirector", "tools.properties");
+    // completed once the look and feel is set, dialogs wait for it so none is built with the default one
+    private static final CompletableFuture<Void> LOOK_AND_FEEL = new CompletableFuture<>();
+
     public static void main(String[] args) throws IOException {
-        try {
-            UIManager.setLookAndFeel("com.sun.java.swing.plaf.gtk.GTKLookAndFeel");
-        } catch (Exception e) {
-            System.err.println("Failed to set GTK Look and Feel. Get blinded ig.");
-        }
-        killPrevious();
-        String tools = checkRequiredTools();
-        addAutostartEntry();
-        setDefaultHttpHandler();
-        if (tools != null) {
-            System.err.println(tools);
-            System.exit(1);
-            return;
-        }
-        HttpServer server = HttpServer.create(new InetSocketAddress(9090), 0);
-        System.out.println("Hype Intellij Server started on port 9090");
+        // Only what is needed to answer requests happens before the server is up, the rest runs in parallel afterwards.
+        if (!HEADLESS) timed("kill previous instance", Main::killPrevious);
+        HttpServer server = timed("bind port " + PORT, Main::bindServer);
         server.createContext("/open", new OpenHandler());
         server.createContext("/openResource", new OpenResourceHandler());
-        server.setExecutor(null);
+        server.createContext("/resolve", new ResolveHandler());
+        server.createContext("/stacktrace", new StackTraceHandler());
+        server.createContext("/metrics", new Metrics());
+        server.setExecutor(RequestExecutor.create());
         server.start();
+        System.out.println("Hype Intellij Server started on port %d, %dms after JVM start".formatted(PORT, ManagementFactory.getRuntimeMXBean().getUptime()));
+
+        if (HEADLESS) {
+            timed("load index snapshots", IndexSnapshot::loadAll);
+            IndexSnapshot.startWriter();
+            Preindexer.start();
+            System.out.println("Startup finished headless %dms after JVM start".formatted(ManagementFactory.getRuntimeMXBean().getUptime()));
+            return;
+        }
+        CompletableFuture<String> tools = CompletableFuture.supplyAsync(() -> timed("check required tools", Main::checkRequiredTools));
+        CompletableFuture.allOf(
+                tools,
+                CompletableFuture.runAsync(() -> timed("look and feel", Main::setLookAndFeel)),
+                CompletableFuture.runAsync(() -> timed("load index snapshots", IndexSnapshot::loadAll)),
+                CompletableFuture.runAsync(() -> timed("window registry", WindowRegistry::get)),
+                CompletableFuture.runAsync(() -> timed("autostart entry", Main::addAutostartEntry)),
+                CompletableFuture.runAsync(() -> timed("default http handler", Main::setDefaultHttpHandler))
+        ).join();
+        String missingTools = tools.join();
+        if (missingTools != null) {
+            System.err.println(missingTools);
+            System.exit(1);
+            return;
+        }
+        IndexSnapshot.startWriter();
+        // after the snapshots, so restored projects are not crawled again
+        Preindexer.start();
+        System.out.println("Startup finished %dms after JVM start".formatted(ManagementFactory.getRuntimeMXBean().getUptime()));
+    }
+
+    private interface Step<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    private static <T, E extends Exception> T timed(String name, Step<T, E> step) throws E {
+        long start = System.nanoTime();
+        try {
+            return step.run();
+        } finally {
+            System.out.println("Startup step '%s' took %dms".formatted(name, (System.nanoTime() - start) / 1_000_000));
+        }
+    }
+
+    private static void timed(String name, Runnable step) {
+        timed(name, () -> {
+            step.run();
+            return null;
+        });
+    }
+
+    /**
+     * Sets the look and feel on the event dispatch thread. Requests are already served meanwhile, dialogs wait for it
+     * through {@link #awaitLookAndFeel()}.
+     */
+    private static void setLookAndFeel() {
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                try {
+                    UIManager.setLookAndFeel("com.sun.java.swing.plaf.gtk.GTKLookAndFeel");
+                } catch (Exception e) {
+                    System.err.println("Failed to set GTK Look and Feel. Get blinded ig.");
+                }
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            LOOK_AND_FEEL.complete(null);
+        }
+    }
+
+    /**
+     * Blocks until the startup set the look and feel. Call before building any Swing component.
+     */
+    static void awaitLookAndFeel() {
+        if (!HEADLESS) LOOK_AND_FEEL.join();
+    }
+
+    /**
+     * Binds the port, retrying for a moment since the killed previous instance may not have released it yet.
+     */
+    private static HttpServer bindServer() throws IOException {
+        long start = System.currentTimeMillis();
+        while (true) {
+            try {
+                return HttpServer.create(new InetSocketAddress(PORT), 0);
+            } catch (BindException e) {
+                if (System.currentTimeMillis() - start > BIND_TIMEOUT_MS) throw e;
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException interrupted) {
+                    throw e;
+                }
+            }
+        }
     }
 
     private static void killPrevious() {
@@ -57,24 +154,46 @@ public class Main {
         long currentPid = ProcessHandle.current().pid();
 
         // Kill any existing processes with the same name, excluding the current process
-        try {
-            Process searchProcess = new ProcessBuilder("bash", "-c", "pgrep -f " + processName).start();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(searchProcess.getInputStream()));
-            String pid;
-            while ((pid = reader.readLine()) != null) {
-                if (!pid.equals(String.valueOf(currentPid))) {
-                    new ProcessBuilder("bash", "-c", "kill -9 " + pid).start();
-                    System.out.println("Terminated existing instance with PID: " + pid);
-                }
+        List<ProcessHandle> killed = new ArrayList<>();
+        ProcessHandle.allProcesses()
+                .filter(process -> process.pid() != currentPid)
+                .filter(process -> process.info().commandLine().map(commandLine -> commandLine.contains(processName)).orElse(false))
+                .forEach(process -> {
+                    if (process.destroyForcibly()) {
+                        killed.add(process);
+                        System.out.println("Terminated existing instance with PID: " + process.pid());
+                    }
+                });
+        for (ProcessHandle process : killed) {
+            try {
+                process.onExit().get(1, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                e.printStackTrace();
             }
-            searchProcess.waitFor();
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 
 
 
+    /**
+     * The directory of a project, "~/IdeaProjects/&lt;project&gt;/" unless -Dhype.projects points somewhere else.
+     */
+    static String projectPath(String project) {
+        return PROJECTS_DIR + "/" + project + "/";
+    }
+
+    static Path projectsDirectory() {
+        return Paths.get(PROJECTS_DIR.replaceFirst("^~", System.getProperty("user.home"))).toAbsolutePath().normalize();
+    }
+
+    /**
+     * @return whether the name is a valid project name and a directory of that name exists in the projects directory.
+     * Checked before a project is indexed, every index keeps a watcher thread for the lifetime of the daemon.
+     */
+    static boolean projectExists(String project) {
+        return IntelijHandler.isValidProjectName(project) && Files.isDirectory(projectsDirectory().resolve(project));
+    }
+
     static boolean isValidUrl(String url) {
         try {
             new java.net.URI(url);
@@ -85,19 +204,40 @@ public class Main {
     }
 
     private static String checkRequiredTools() {
+        // the tools are only the fallback for when the X server can not be reached directly
+        if (X11Connection.shared() != null) return null;
         String[] tools = {"xdotool", "wmctrl"};
         List<String> missingTools = new ArrayList<>();
 
+        // Found tools are remembered per PATH, missing ones are checked again on every start.
+        String path = System.getenv().getOrDefault("PATH", "");
+        Properties cache = new Properties();
+        try (Reader reader = Files.newBufferedReader(TOOL_CACHE)) {
+            cache.load(reader);
+        } catch (IOException ignored) {
+        }
+        if (!path.equals(cache.getProperty("PATH"))) {
+            cache.clear();
+            cache.setProperty("PATH", path);
+        }
+        boolean changed = false;
         for (String tool : tools) {
+            if (cache.containsKey(tool)) continue;
+            if (isOnPath(tool, path)) {
+                cache.setProperty(tool, "found");
+                changed = true;
+            } else {
+                missingTools.add(tool);
+            }
+        }
+        if (changed) {
             try {
-                Process process = Runtime.getRuntime().exec(new String[]{"bash", "-c", "command -v " + tool});
-                int exitCode = process.waitFor();
-                if (exitCode != 0) {
-                    missingTools.add(tool);
+                Files.createDirectories(TOOL_CACHE.getParent());
+                try (Writer writer = Files.newBufferedWriter(TOOL_CACHE)) {
+                    cache.store(writer, "Required tools found on the PATH");
                 }
-            } catch (Exception e) {
+            } catch (IOException e) {
                 e.printStackTrace();
-                return "An error occurred while checking for required tools.";
             }
         }
 
@@ -109,6 +249,13 @@ public class Main {
         return null;
     }
 
+    private static boolean isOnPath(String tool, String path) {
+        for (String dir : path.split(File.pathSeparator)) {
+            if (!dir.isEmpty() && Files.isExecutable(Paths.get(dir, tool))) return true;
+        }
+        return false;
+    }
+
     private static void addAutostartEntry() {
         String userHome = System.getProperty("user.home");
         Path autostartDir = Paths.get(userHome, ".config", "autostart");
@@ -149,14 +296,24 @@ public class Main {
     }
 
     static void showErrorPopup(String message) {
+        if (HEADLESS) {
+            System.err.println(message);
+            return;
+        }
+        awaitLookAndFeel();
+        JfrEvents.Dialog event = new JfrEvents.Dialog();
+        event.begin();
         JOptionPane.showMessageDialog(null, message, "Error", JOptionPane.ERROR_MESSAGE);
+        event.title = "Error";
+        event.options = 1;
+        event.commit();
     }
 
     private static void setDefaultHttpHandler() {
         try {
-            System.out.println("Injecting myself into xdg mime default for http to intercept port 9090 localhost requests");
+            System.out.println("Injecting myself into xdg mime default for http to intercept port " + PORT + " localhost requests");
             // Get the current default handler for HTTP
-            Process getDefaultHandlerProcess = new ProcessBuilder("xdg-mime", "query", "default", "x-scheme-handler/http").start();
+            Process getDefaultHandlerProcess = Metrics.start(new ProcessBuilder("xdg-mime", "query", "default", "x-scheme-handler/http"));
             BufferedReader reader = new BufferedReader(new InputStreamReader(getDefaultHandlerProcess.getInputStream()));
             String previousDefaultHandler = reader.readLine();
             getDefaultHandlerProcess.waitFor();
@@ -181,12 +338,12 @@ public class Main {
             // Create a script to handle HTTP URLs
             String scriptContent = """
                     #!/bin/bash
-                    if [[ "$1" == "http://localhost:9090"* ]]; then
+                    if [[ "$1" == "http://localhost:%d"* ]]; then
                         curl "$1" > /dev/null
                     else
                         %s "$1"
                     fi
-                    """.formatted(originalExec);
+                    """.formatted(PORT, originalExec);
             Path scriptPath = Paths.get(System.getProperty("user.home"), ".local", "bin", "http-handler.sh");
             Files.createDirectories(scriptPath.getParent());
             Files.write(scriptPath, scriptContent.getBytes());
@@ -208,7 +365,7 @@ public class Main {
 
             // Set the .desktop file as the default handler for HTTP
             ProcessBuilder processBuilder = new ProcessBuilder("xdg-mime", "default", newDesktopFilePath.toString(), "x-scheme-handler/http", "x-scheme-handler/https");
-            Process process = processBuilder.start();
+            Process process = Metrics.start(processBuilder);
             process.waitFor();
 
         } catch (Exception e) {
@@ -0,0 +1,191 @@
+package de.hype;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and histograms of where the time of a request goes, exported in the Prometheus text format on /metrics.
+ * <p>
+ * Recording is a few {@link LongAdder} increments: no locks and no allocation on the request path. Metrics are
+ * registered once in static fields of the classes that record them, a series is one label value of a family,
+ * e.g. {@code hype_focus_phase_seconds{phase="wait"}}.
+ */
+class Metrics implements HttpHandler {
+    // seconds
+    private static final double[] LATENCY_BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+    private static final double[] COUNT_BUCKETS = {0, 1, 2, 5, 10, 25, 50, 100, 1000, 10_000, 100_000, 1_000_000};
+    private static final Map<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+    // resolved once per command, start() only does a map lookup
+    private static final Map<String, Counter> PROCESSES_SPAWNED = new ConcurrentHashMap<>();
+
+    private interface Series {
+        void write(StringBuilder out, String name, String labels);
+    }
+
+    private record Family(String help, String type, Map<String, Series> series) {
+    }
+
+    static final class Counter implements Series {
+        private final LongAdder value = new LongAdder();
+
+        void increment() {
+            value.increment();
+        }
+
+        void add(long amount) {
+            value.add(amount);
+        }
+
+        long get() {
+            return value.sum();
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            out.append(name).append(labels).append(' ').append(value.sum()).append('\n');
+        }
+    }
+
+    static final class Histogram implements Series {
+        // upper bounds in recorded units, the last bucket is +Inf
+        private final long[] bounds;
+        private final double[] exportedBounds;
+        private final double scale;
+        private final LongAdder[] buckets;
+        private final LongAdder sum = new LongAdder();
+
+        private Histogram(double[] exportedBounds, double scale) {
+            this.exportedBounds = exportedBounds;
+            this.scale = scale;
+            this.bounds = new long[exportedBounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = Math.round(exportedBounds[i] / scale);
+            }
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            int i = 0;
+            while (i < bounds.length && value > bounds[i]) i++;
+            buckets[i].increment();
+            sum.add(value);
+        }
+
+        /**
+         * Records the time since {@code startNanos}, taken from {@link System#nanoTime()}.
+         */
+        void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String bound = i < exportedBounds.length ? Double.toString(exportedBounds[i]) : "+Inf";
+                out.append(name).append("_bucket").append(prefix).append("le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum").append(labels).append(' ').append(sum.sum() * scale).append('\n');
+            out.append(name).append("_count").append(labels).append(' ').append(cumulative).append('\n');
+        }
+    }
+
+    static Counter counter(String name, String help) {
+        return register(name, help, "counter", "", "", new Counter());
+    }
+
+    static Counter counter(String name, String help, String label, String value) {
+        return register(name, help, "counter", label, value, new Counter());
+    }
+
+    /**
+     * A histogram of durations in nanoseconds, exported in seconds.
+     */
+    static Histogram timer(String name, String help) {
+        return timer(name, help, "", "");
+    }
+
+    static Histogram timer(String name, String help, String label, String value) {
+        return register(name, help, "histogram", label, value, new Histogram(LATENCY_BUCKETS, 1e-9));
+    }
+
+    /**
+     * A histogram of counts, like the number of files looked at by a request.
+     */
+    static Histogram sizes(String name, String help) {
+        return register(name, help, "histogram", "", "", new Histogram(COUNT_BUCKETS, 1));
+    }
+
+    static void gauge(String name, String help, LongSupplier value) {
+        register(name, help, "gauge", "", "", (Series) (out, n, labels) -> out.append(n).append(labels).append(' ').append(value.getAsLong()).append('\n'));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <S extends Series> S register(String name, String help, String type, String label, String value, S series) {
+        Family family = FAMILIES.computeIfAbsent(name, k -> new Family(help, type, new ConcurrentSkipListMap<>()));
+        String labels = label.isEmpty() ? "" : "{%s=\"%s\"}".formatted(label, value);
+        Series existing = family.series().putIfAbsent(labels, series);
+        return existing == null ? series : (S) existing;
+    }
+
+    /**
+     * Starts a process and counts it by the name of its command, also recorded as a {@link JfrEvents.ProcessStart}.
+     */
+    static Process start(ProcessBuilder builder) throws IOException {
+        String command = builder.command().isEmpty() ? "other" : builder.command().get(0);
+        Counter spawned = PROCESSES_SPAWNED.get(command);
+        if (spawned == null) {
+            spawned = PROCESSES_SPAWNED.computeIfAbsent(command, k -> counter("hype_processes_spawned_total", "External processes started, by command.", "command", k));
+        }
+        spawned.increment();
+        JfrEvents.ProcessStart event = new JfrEvents.ProcessStart();
+        event.begin();
+        Process process = builder.start();
+        if (event.shouldCommit()) {
+            event.command = String.join(" ", builder.command());
+            event.pid = process.pid();
+            event.commit();
+        }
+        return process;
+    }
+
+    static String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        FAMILIES.forEach((name, family) -> {
+            out.append("# HELP ").append(name).append(' ').append(family.help()).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type()).append('\n');
+            family.series().forEach((labels, series) -> series.write(out, name, labels));
+        });
+        return out.toString();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String remoteAddress = exchange.getRemoteAddress().getAddress().getHostAddress();
+        if (!"127.0.0.1".equals(remoteAddress) && !"::1".equals(remoteAddress)) {
+            exchange.sendResponseHeaders(403, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package de.hype;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The module roots of a project.
+ * <p>
+ * Built from the build files found by the {@link ResourceIndex}, the Gradle settings (include, custom projectDir,
+ * includeBuild / composite builds, recursively), the Maven {@code <modules>} of the root pom and all nested poms and the
+ * module list of .idea/modules.xml. The model is cached per project and only rebuilt when one of the files it was
+ * built from changes its mtime or a build file appears or disappears. Checking the cached model takes no lock, a
+ * rebuild only locks its own project.
+ */
+class ModuleModel {
+    private static final Map<Path, ModuleModel> MODELS = new ConcurrentHashMap<>();
+    private static final Map<Path, ReentrantLock> BUILD_LOCKS = new ConcurrentHashMap<>();
+    private static final List<String> SETTINGS_FILES = List.of("settings.gradle", "settings.gradle.kts");
+
+    private static final Pattern QUOTED = Pattern.compile("[\"']([^\"']+)[\"']");
+    private static final Pattern GRADLE_INCLUDE = Pattern.compile("^\\s*include\\b\\s*\\(?(.*)$", Pattern.MULTILINE);
+    private static final Pattern GRADLE_INCLUDE_BUILD = Pattern.compile("^\\s*includeBuild\\b\\s*\\(?\\s*[\"']([^\"']+)[\"']", Pattern.MULTILINE);
+    private static final Pattern GRADLE_PROJECT_DIR = Pattern.compile(
+            "project\\(\\s*[\"']:?([^\"']+)[\"']\\s*\\)\\.projectDir\\s*=\\s*(?:file|new\\s+File)\\(\\s*(?:rootDir\\s*,\\s*)?[\"']([^\"']+)[\"']");
+    private static final Pattern MAVEN_MODULE = Pattern.compile("<module>\\s*([^<]+?)\\s*</module>");
+    private static final Pattern IDEA_MODULE = Pattern.compile("filepath=\"\\$PROJECT_DIR\\$/([^\"]+)\\.iml\"");
+
+    private final Set<Path> buildFileDirectories;
+    // every file the model was derived from with its mtime, -1 if it did not exist
+    private final Map<Path, Long> inputs;
+    private final Set<Path> moduleRoots;
+
+    private ModuleModel(Set<Path> buildFileDirectories, Map<Path, Long> inputs, Set<Path> moduleRoots) {
+        this.buildFileDirectories = buildFileDirectories;
+        this.inputs = inputs;
+        this.moduleRoots = moduleRoots;
+    }
+
+    /**
+     * @return the cached model of the project, rebuilt first if any of its inputs changed.
+     */
+    static ModuleModel of(ProjectIndex index) {
+        Path projectPath = index.getProjectPath();
+        Set<Path> buildFileDirectories = index.getResources().getBuildFileDirectories();
+        ModuleModel model = MODELS.get(projectPath);
+        if (model != null && model.isUpToDate(buildFileDirectories)) return model;
+        ReentrantLock lock = BUILD_LOCKS.computeIfAbsent(projectPath, k -> new ReentrantLock());
+        lock.lock();
+        try {
+            // another request may have rebuilt it meanwhile
+            model = MODELS.get(projectPath);
+            if (model != null && model.isUpToDate(buildFileDirectories)) return model;
+            model = build(projectPath, buildFileDirectories);
+            MODELS.put(projectPath, model);
+            return model;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static void evict(Path projectPath) {
+        MODELS.remove(projectPath);
+    }
+
+    Set<Path> getModuleRoots() {
+        return moduleRoots;
+    }
+
+    private boolean isUpToDate(Set<Path> currentBuildFileDirectories) {
+        if (!buildFileDirectories.equals(currentBuildFileDirectories)) return false;
+        for (Map.Entry<Path, Long> input : inputs.entrySet()) {
+            if (mtime(input.getKey()) != input.getValue()) return false;
+        }
+        return true;
+    }
+
+    private static long mtime(Path file) {
+        try {
+            return Files.getLastModifiedTime(file, LinkOption.NOFOLLOW_LINKS).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static ModuleModel build(Path projectPath, Set<Path> buildFileDirectories) {
+        long start = System.currentTimeMillis();
+        Map<Path, Long> inputs = new LinkedHashMap<>();
+        Set<Path> moduleRoots = new LinkedHashSet<>();
+
+        // Always include the project root
+        moduleRoots.add(projectPath);
+        // Modules based on common project files (Gradle, Maven, IntelliJ)
+        moduleRoots.addAll(buildFileDirectories);
+        readGradleSettings(projectPath, moduleRoots, inputs, new HashSet<>());
+        readMavenModules(projectPath, moduleRoots, inputs, new HashSet<>());
+        readIdeaModules(projectPath, moduleRoots, inputs);
+
+        // composite builds outside of the project
+        moduleRoots.removeIf(root -> !root.startsWith(projectPath));
+        System.out.println("Built module model of %s in %dms (%d modules)".formatted(projectPath, System.currentTimeMillis() - start, moduleRoots.size()));
+        return new ModuleModel(Set.copyOf(buildFileDirectories), inputs, Collections.unmodifiableSet(moduleRoots));
+    }
+
+    private static String read(Path file, Map<Path, Long> inputs) {
+        inputs.put(file, mtime(file));
+        try {
+            return Files.readString(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the settings of a Gradle build and of every build it includes with includeBuild.
+     */
+    private static void readGradleSettings(Path buildRoot, Set<Path> moduleRoots, Map<Path, Long> inputs, Set<Path> visitedBuilds) {
+        if (!visitedBuilds.add(buildRoot)) return;
+        for (String settingsFile : SETTINGS_FILES) {
+            String content = read(buildRoot.resolve(settingsFile), inputs);
+            if (content == null) continue;
+            content = stripComments(content);
+
+            Map<String, Path> projectDirs = new HashMap<>();
+            Matcher projectDir = GRADLE_PROJECT_DIR.matcher(content);
+            while (projectDir.find()) {
+                projectDirs.put(projectDir.group(1).replace(":", "/"), buildRoot.resolve(projectDir.group(2)).normalize());
+            }
+
+            Matcher include = GRADLE_INCLUDE.matcher(content);
+            while (include.find()) {
+                // include("a", ":b:c") and include 'a', 'b' may list several projects
+                Matcher quoted = QUOTED.matcher(include.group(1));
+                while (quoted.find()) {
+                    String projectName = quoted.group(1);
+                    // Convert project path format to directory
+                    if (projectName.startsWith(":")) {
+                        projectName = projectName.substring(1);
+                    }
+                    projectName = projectName.replace(":", "/");
+                    Path moduleRoot = projectDirs.getOrDefault(projectName, buildRoot.resolve(projectName).normalize());
+                    if (Files.isDirectory(moduleRoot)) {
+                        moduleRoots.add(moduleRoot);
+                    }
+                }
+            }
+
+            Matcher includeBuild = GRADLE_INCLUDE_BUILD.matcher(content);
+            while (includeBuild.find()) {
+                Path includedBuild = buildRoot.resolve(includeBuild.group(1)).normalize();
+                if (Files.isDirectory(includedBuild)) {
+                    moduleRoots.add(includedBuild);
+                    readGradleSettings(includedBuild, moduleRoots, inputs, visitedBuilds);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the modules of a pom and, recursively, of the poms of those modules.
+     */
+    private static void readMavenModules(Path moduleRoot, Set<Path> moduleRoots, Map<Path, Long> inputs, Set<Path> visitedPoms) {
+        if (!visitedPoms.add(moduleRoot)) return;
+        String content = read(moduleRoot.resolve("pom.xml"), inputs);
+        if (content == null) return;
+        content = content.replaceAll("(?s)<!--.*?-->", "");
+        Matcher module = MAVEN_MODULE.matcher(content);
+        while (module.find()) {
+            Path child = moduleRoot.resolve(module.group(1)).normalize();
+            // a module may point to a pom file instead of its directory
+            if (child.getFileName() != null && child.getFileName().toString().endsWith(".xml")) child = child.getParent();
+            if (child != null && Files.isDirectory(child)) {
+                moduleRoots.add(child);
+                readMavenModules(child, moduleRoots, inputs, visitedPoms);
+            }
+        }
+    }
+
+    private static void readIdeaModules(Path projectPath, Set<Path> moduleRoots, Map<Path, Long> inputs) {
+        String content = read(projectPath.resolve(".idea").resolve("modules.xml"), inputs);
+        if (content == null) return;
+        Matcher module = IDEA_MODULE.matcher(content);
+        while (module.find()) {
+            Path moduleRoot = projectPath.resolve(module.group(1)).normalize().getParent();
+            if (moduleRoot != null && Files.isDirectory(moduleRoot)) moduleRoots.add(moduleRoot);
+        }
+    }
+
+    /**
+     * Removes // and /* *&#47; comments of a Groovy or Kotlin build script. Comment markers inside string literals, like
+     * the // of a URL, are kept.
+     */
+    static String stripComments(String content) {
+        StringBuilder out = new StringBuilder(content.length());
+        int length = content.length();
+        int i = 0;
+        while (i < length) {
+            char c = content.charAt(i);
+            if (c == '"' || c == '\'') {
+                // copy the whole literal, escapes included
+                int end = i + 1;
+                while (end < length && content.charAt(end) != c && content.charAt(end) != '\n') {
+                    if (content.charAt(end) == '\\') end++;
+                    end++;
+                }
+                end = Math.min(end + 1, length);
+                out.append(content, i, end);
+                i = end;
+            } else if (c == '/' && i + 1 < length && content.charAt(i + 1) == '/') {
+                while (i < length && content.charAt(i) != '\n') i++;
+            } else if (c == '/' && i + 1 < length && content.charAt(i + 1) == '*') {
+                int end = content.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return out.toString();
+    }
+}
@@ -6,20 +6,64 @@ import com.sun.net.httpserver.HttpHandler;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static de.hype.IntelijHandler.focusIntelliJWindow;
 import static de.hype.Main.showErrorPopup;
 
 public class OpenHandler implements HttpHandler {
+    private static final int CONCURRENT_PACKAGE_CHECK_THRESHOLD = 4;
+    private static final ExecutorService PACKAGE_CHECK_EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())), r -> {
+                Thread thread = new Thread(r, "PackageCheck");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private static final SingleFlight<Lookup, Location> CLASS_LOOKUPS = new SingleFlight<>();
+    private static final String PHASE_HELP = "Time spent in the phases of /open.";
+    private static final Metrics.Histogram TOTAL_TIME = Metrics.timer("hype_open_phase_seconds", PHASE_HELP, "phase", "total");
+    private static final Metrics.Histogram INDEX_TIME = Metrics.timer("hype_open_phase_seconds", PHASE_HELP, "phase", "index");
+    private static final Metrics.Histogram PACKAGE_CHECK_TIME = Metrics.timer("hype_open_phase_seconds", PHASE_HELP, "phase", "package_check");
+    private static final Metrics.Histogram WALK_TIME = Metrics.timer("hype_open_phase_seconds", PHASE_HELP, "phase", "walk");
+    private static final String RESULT_HELP = "Class lookups by how they were answered: verified earlier, from the index candidates, by a full walk or not at all.";
+    private static final Metrics.Counter RESOLVED_HITS = Metrics.counter("hype_class_lookups_total", RESULT_HELP, "result", "resolved");
+    private static final Metrics.Counter CANDIDATE_HITS = Metrics.counter("hype_class_lookups_total", RESULT_HELP, "result", "candidate");
+    private static final Metrics.Counter WALK_HITS = Metrics.counter("hype_class_lookups_total", RESULT_HELP, "result", "walk");
+    private static final Metrics.Counter MISSES = Metrics.counter("hype_class_lookups_total", RESULT_HELP, "result", "miss");
+    private static final Metrics.Histogram CANDIDATES = Metrics.sizes("hype_open_candidate_files", "Source files whose package header was read per class lookup.");
+
+    private record Lookup(String project, String className) {
+    }
+
+    /**
+     * @param path project relative path of the source file.
+     */
+    record Location(String project, String path) {
+    }
+
     @Override
     public void handle(HttpExchange exchange) throws IOException {
+        JfrEvents.Request event = new JfrEvents.Request();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            handleRequest(exchange, event);
+        } finally {
+            TOTAL_TIME.recordSince(start);
+            event.status = exchange.getResponseCode();
+            event.commit();
+        }
+    }
+
+    private void handleRequest(HttpExchange exchange, JfrEvents.Request event) throws IOException {
         String remoteAddress = exchange.getRemoteAddress().getAddress().getHostAddress();
         if (!"127.0.0.1".equals(remoteAddress) && !"::1".equals(remoteAddress)) {
             String errorResponse = "Access denied";
@@ -30,6 +74,8 @@ public class OpenHandler implements HttpHandler {
             showErrorPopup("Access denied from " + remoteAddress);
             return;
         }
+        JfrEvents.ParseRequest parse = new JfrEvents.ParseRequest();
+        parse.begin();
         String query = exchange.getRequestURI().getQuery();
         String[] params = query.split("&");
         String className = null;
@@ -45,11 +91,43 @@ public class OpenHandler implements HttpHandler {
                 line = param.substring(5);
             }
         }
-        String projectPath = "~/IdeaProjects/" + project + "/";
+        parse.query = query;
+        parse.commit();
+        event.kind = "class";
+        event.query = className;
 
-        if (className != null && projectPath != null) {
-            String response = searchClassFile(className, Paths.get(projectPath));
-            if (response != null) {
+        if (project != null && !Main.projectExists(project)) {
+            String errorResponse = "Project not found";
+            exchange.sendResponseHeaders(404, errorResponse.getBytes().length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(errorResponse.getBytes());
+            os.close();
+        } else if (className != null) {
+            String finalClassName = className;
+            String finalProject = project;
+            SingleFlight.Result<Location> result = CLASS_LOOKUPS.execute(new Lookup(project, className), () -> {
+                if (finalProject == null) {
+                    // no project in the link, look in every indexed one
+                    List<Location> locations = searchAllProjects(finalClassName);
+                    if (locations.size() > 1) System.out.println("%s found in %d projects, using %s".formatted(finalClassName, locations.size(), locations.get(0).project()));
+                    return locations.isEmpty() ? null : locations.get(0);
+                }
+                return RequestExecutor.withProjectPermit(finalProject, () -> {
+                    String path = searchClassFile(finalClassName, Paths.get(Main.projectPath(finalProject)));
+                    return path == null ? null : new Location(finalProject, path);
+                });
+            });
+            Location location = result.value();
+            String response = location == null ? null : location.path();
+            if (location != null) project = location.project();
+            event.project = project;
+            ProjectHistory.touch(project);
+            event.matches = response == null ? 0 : 1;
+            event.superseded = !result.latest();
+            if (response != null && !result.latest()) {
+                // an identical request came in meanwhile, that one opens IntelliJ
+                IntelijHandler.sendCloseTab(exchange);
+            } else if (response != null) {
                 String redirectUrl = "jetbrains://idea/navigate/reference?project=" + project + "&path=" + response;
                 if (line != null) {
                     redirectUrl += ":%d".formatted(Integer.parseInt(line) - 1);
@@ -80,45 +158,142 @@ public class OpenHandler implements HttpHandler {
         }
     }
 
-    private static String searchClassFile(String className, Path projectPath) {
+    static String searchClassFile(String className, Path projectPath) {
+        return searchClassFile(className, projectPath, true);
+    }
+
+    /**
+     * Looks the class up in every project under the projects directory that has an index (snapshot, pre-indexed or
+     * requested before). Never crawls or walks anything, projects without an index are not searched.
+     *
+     * @return every project that has the class, most recently used first.
+     */
+    static List<Location> searchAllProjects(String className) {
+        Path projectsDirectory = Main.projectsDirectory();
+        List<Location> locations = new ArrayList<>();
+        for (ProjectIndex index : ProjectIndex.getLoadedIndexes()) {
+            Path projectPath = index.getProjectPath();
+            if (!index.isBuilt() || !projectsDirectory.equals(projectPath.getParent())) continue;
+            // the index itself, not ProjectIndex.get: searching a project does not make it one to watch
+            String path = searchClassFile(className, index, false);
+            if (path != null) locations.add(new Location(projectPath.getFileName().toString(), path));
+        }
+        locations.sort(Comparator.comparing(Location::project, ProjectHistory.mostRecentFirst()).thenComparing(Location::project));
+        return locations;
+    }
+
+    /**
+     * @param walkOnMiss walk the project if the index does not know the class. Batch lookups skip it, many of their
+     *                   classes (JDK, libraries) are not in the project at all and each miss would walk it again.
+     */
+    static String searchClassFile(String className, Path projectPath, boolean walkOnMiss) {
         projectPath = Paths.get(projectPath.toString().replaceFirst("^~", System.getProperty("user.home"))).toAbsolutePath().normalize();
-        String classFileNameRegex = ".*%s\\.(java|kt)$".formatted(Pattern.quote(className.substring(className.lastIndexOf('.') + 1)));
-        String packageName = className.substring(0, className.lastIndexOf('.')).replace('.', '/');
-
-        try (Stream<Path> paths = Files.walk(projectPath).parallel()) {
-            List<Path> matchingFiles = paths
-                    .filter(Files::isRegularFile)
-                    .filter(path -> {
-                        String pathString = path.toString();
-                        if (!pathString.matches(classFileNameRegex)) return false;
-                        if (pathString.matches("(?!.*/resources/).*/build/tmp/.*")) return false;
-                        return true;
-                    })
-                    .collect(Collectors.toList());
-
-            for (Path file : matchingFiles) {
-                if (isCorrectPackage(file, packageName)) {
-                    return projectPath.relativize(file).toString().replace(File.separator, "/");
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        long start = System.nanoTime();
+        ProjectIndex index = ProjectIndex.get(projectPath);
+        INDEX_TIME.recordSince(start);
+        return searchClassFile(className, index, walkOnMiss);
+    }
+
+    private static String searchClassFile(String className, ProjectIndex index, boolean walkOnMiss) {
+        Path projectPath = index.getProjectPath();
+        int lastDot = className.lastIndexOf('.');
+        String simpleName = className.substring(lastDot + 1);
+        // a class without a dot is in the default package
+        String packageName = lastDot < 0 ? "" : className.substring(0, lastDot).replace('.', '/');
+
+        Path resolved = index.getResolved(className);
+        if (resolved != null) {
+            RESOLVED_HITS.increment();
+            return toRelativePath(projectPath, resolved);
+        }
+        long start = System.nanoTime();
+        List<Path> candidates = index.getCandidates(simpleName);
+        Path candidate = findInPackage(candidates, packageName);
+        PACKAGE_CHECK_TIME.recordSince(start);
+        CANDIDATES.record(candidates.size());
+        if (candidate != null) {
+            CANDIDATE_HITS.increment();
+            index.putResolved(className, candidate);
+            return toRelativePath(projectPath, candidate);
+        }
+
+        if (!walkOnMiss) {
+            MISSES.increment();
+            return null;
+        }
+        // Index miss. The file may have been created after the index was built, so fall back to a full walk.
+        start = System.nanoTime();
+        Path file = walkForClassFile(simpleName, packageName, projectPath);
+        WALK_TIME.recordSince(start);
+        if (file != null) {
+            WALK_HITS.increment();
+            index.addFile(file);
+            index.putResolved(className, file);
+            return toRelativePath(projectPath, file);
         }
+        MISSES.increment();
         return null;
     }
 
-    private static boolean isCorrectPackage(Path file, String packageName) {
-        try {
-            List<String> lines = Files.readAllLines(file);
-            for (String line : lines) {
-                if (line.startsWith("package ")) {
-                    String filePackage = line.substring(8).replace(";","").trim().replace('.', '/');
-                    return filePackage.equals(packageName);
-                }
+    private static Path walkForClassFile(String simpleName, String packageName, Path projectPath) {
+        Set<String> fileNames = Set.of(simpleName + ".java", simpleName + ".kt");
+        List<Path> matchingFiles = new ArrayList<>();
+        ProjectCrawler.forProject(projectPath).crawl((file, attrs) -> {
+            if (attrs.isRegularFile() && fileNames.contains(file.getFileName().toString())) {
+                matchingFiles.add(file);
             }
+        });
+        return findInPackage(matchingFiles, packageName);
+    }
+
+    private static String toRelativePath(Path projectPath, Path file) {
+        return projectPath.relativize(file).toString().replace(File.separator, "/");
+    }
+
+    /**
+     * @return the first file (in list order) that declares the package. Checked concurrently if there are many candidates.
+     */
+    private static Path findInPackage(List<Path> candidates, String packageName) {
+        JfrEvents.PackageCheck event = new JfrEvents.PackageCheck();
+        event.begin();
+        Path match = checkPackages(candidates, packageName);
+        if (event.shouldCommit()) {
+            event.packageName = packageName;
+            event.candidates = candidates.size();
+            event.match = match == null ? null : match.toString();
+            event.commit();
+        }
+        return match;
+    }
+
+    private static Path checkPackages(List<Path> candidates, String packageName) {
+        if (candidates.size() <= CONCURRENT_PACKAGE_CHECK_THRESHOLD) {
+            for (Path file : candidates) {
+                if (isCorrectPackage(file, packageName)) return file;
+            }
+            return null;
+        }
+        List<CompletableFuture<Boolean>> checks = new ArrayList<>(candidates.size());
+        for (Path file : candidates) {
+            checks.add(CompletableFuture.supplyAsync(() -> isCorrectPackage(file, packageName), PACKAGE_CHECK_EXECUTOR));
+        }
+        Path match = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            if (match == null && checks.get(i).join()) {
+                match = candidates.get(i);
+            } else if (match != null) {
+                checks.get(i).cancel(false);
+            }
+        }
+        return match;
+    }
+
+    static boolean isCorrectPackage(Path file, String packageName) {
+        try {
+            return PackageHeaderReader.readPackage(file).replace('.', '/').equals(packageName);
         } catch (IOException e) {
             e.printStackTrace();
         }
         return false;
     }
-}
\ No newline at end of file
+}
@@ -5,6 +5,8 @@ import com.sun.net.httpserver.HttpHandler;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -13,14 +15,59 @@ import java.util.*;
 import java.util.List;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import static de.hype.IntelijHandler.openFileInIntelliJ;
 import static de.hype.Main.showErrorPopup;
 
 class OpenResourceHandler implements HttpHandler {
+    private static final SingleFlight<Lookup, Search> RESOURCE_LOOKUPS = new SingleFlight<>();
+    private static final String PHASE_HELP = "Time spent in the phases of /openResource.";
+    private static final Metrics.Histogram TOTAL_TIME = Metrics.timer("hype_open_resource_phase_seconds", PHASE_HELP, "phase", "total");
+    private static final Metrics.Histogram INDEX_TIME = Metrics.timer("hype_open_resource_phase_seconds", PHASE_HELP, "phase", "index");
+    private static final Metrics.Histogram SEARCH_TIME = Metrics.timer("hype_open_resource_phase_seconds", PHASE_HELP, "phase", "search");
+    private static final String SEARCH_HELP = "Resource searches by how they were answered: suffix index or a scan of the resource roots.";
+    private static final Metrics.Counter SUFFIX_SEARCHES = Metrics.counter("hype_resource_searches_total", SEARCH_HELP, "kind", "suffix");
+    private static final Metrics.Counter SCAN_SEARCHES = Metrics.counter("hype_resource_searches_total", SEARCH_HELP, "kind", "scan");
+    private static final Metrics.Histogram FILES_EXAMINED = Metrics.sizes("hype_open_resource_files_examined", "Indexed resource files compared against the pattern per search.");
+
+    private record Lookup(String project, String path, String regex, boolean focusTestResource) {
+    }
+
+    /**
+     * @param chooserShown whether the request that ran the search already opened the chooser for these matches.
+     */
+    private record Search(Set<ResourceMatch> matches, boolean chooserShown) {
+    }
+
+    /**
+     * Gets the matches of a search one by one as they are found, in search order.
+     */
+    interface MatchSink {
+        void accept(ResourceMatch match);
+
+        /**
+         * Checked for every file, the search stops as soon as this returns true.
+         */
+        default boolean isCancelled() {
+            return false;
+        }
+    }
+
     @Override
     public void handle(HttpExchange exchange) throws IOException {
+        JfrEvents.Request event = new JfrEvents.Request();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            handleRequest(exchange, event);
+        } finally {
+            TOTAL_TIME.recordSince(start);
+            event.status = exchange.getResponseCode();
+            event.commit();
+        }
+    }
+
+    private void handleRequest(HttpExchange exchange, JfrEvents.Request event) throws IOException {
         // Security check
         String remoteAddress = exchange.getRemoteAddress().getAddress().getHostAddress();
         if (!"127.0.0.1".equals(remoteAddress) && !"::1".equals(remoteAddress)) {
@@ -29,6 +76,8 @@ class OpenResourceHandler implements HttpHandler {
             return;
         }
 
+        JfrEvents.ParseRequest parse = new JfrEvents.ParseRequest();
+        parse.begin();
         String query = exchange.getRequestURI().getQuery();
         String[] params = query.split("&");
         String project = null;
@@ -50,22 +99,81 @@ class OpenResourceHandler implements HttpHandler {
                 focusTestResource = true;
             }
         }
+        parse.query = query;
+        parse.commit();
+        event.project = project;
+        event.kind = regex != null ? "regex" : "path";
+        event.query = regex != null ? regex : path;
 
         if (project == null || (path == null && regex == null)) {
             sendError(exchange, 400, "Missing required parameters");
             return;
         }
+        if (!Main.projectExists(project)) {
+            sendError(exchange, 404, "Project not found");
+            return;
+        }
+        ProjectHistory.touch(project);
 
-        String projectPath = "~/IdeaProjects/" + project + "/";
+        String projectPath = Main.projectPath(project);
         Set<ResourceMatch> matches;
+        // opened by the search on the second match, matches found later are added while it is shown
+        ResourceChooser[] chooser = {null};
 
         try {
-            if (regex != null) {
-                matches = findResourcesByRegex(regex, Paths.get(projectPath), focusTestResource);
-            } else {
-                matches = findResourcesByPath(path, Paths.get(projectPath), focusTestResource);
-            }
+            String finalProject = project;
+            String finalPath = path;
+            String finalRegex = regex;
+            String finalLine = line;
+            boolean finalFocusTestResource = focusTestResource;
+            MatchSink sink = Main.HEADLESS ? match -> {
+            } : new MatchSink() {
+                private ResourceMatch first;
+
+                @Override
+                public void accept(ResourceMatch match) {
+                    if (first == null) {
+                        first = match;
+                        return;
+                    }
+                    if (chooser[0] == null) {
+                        Main.awaitLookAndFeel();
+                        chooser[0] = new ResourceChooser(exchange, finalProject, finalLine);
+                        chooser[0].add(first);
+                    }
+                    chooser[0].add(match);
+                }
 
+                @Override
+                public boolean isCancelled() {
+                    return chooser[0] != null && chooser[0].isClosed();
+                }
+            };
+            SingleFlight.Result<Search> result = RESOURCE_LOOKUPS.execute(new Lookup(project, path, regex, focusTestResource), () -> {
+                return RequestExecutor.withProjectPermit(finalProject, () -> {
+                    Set<ResourceMatch> found;
+                    if (finalRegex != null) {
+                        found = findResourcesByRegex(finalRegex, Paths.get(projectPath), finalFocusTestResource, sink);
+                    } else {
+                        found = findResourcesByPath(finalPath, Paths.get(projectPath), finalFocusTestResource, sink);
+                    }
+                    if (chooser[0] != null) chooser[0].searchFinished();
+                    return new Search(found, chooser[0] != null);
+                });
+            });
+            matches = result.value().matches();
+            event.matches = matches.size();
+            event.superseded = !result.latest();
+
+            if (chooser[0] != null) {
+                // the chooser answers the request once a match is picked
+                return;
+            }
+            if (result.value().chooserShown() || (!matches.isEmpty() && !result.latest())) {
+                // an identical request came in meanwhile, that one opens IntelliJ or the selection dialog
+                IntelijHandler.sendCloseTab(exchange);
+                return;
+            }
             if (matches.isEmpty()) {
                 sendError(exchange, 404, "Resource not found");
                 return;
@@ -74,16 +182,16 @@ class OpenResourceHandler implements HttpHandler {
                 String relativePath = match.getRelativePath();
                 openFileInIntelliJ(exchange, project, relativePath, line);
             } else {
-                // Multiple matches found, show selection dialog
-                showResourceSelectionDialog(exchange, matches, project, line);
+                // only headless gets here, otherwise the chooser was opened by the search
+                sendError(exchange, 300, matches.stream().map(ResourceMatch::getDisplayPath).sorted().collect(Collectors.joining("\n")));
             }
         } catch (Exception e) {
             e.printStackTrace();
-            sendError(exchange, 500, "Error processing request: " + e.getMessage());
+            if (chooser[0] == null) sendError(exchange, 500, "Error processing request: " + e.getMessage());
         }
     }
 
-    private static class ResourceMatch {
+    static class ResourceMatch {
         private final Path projectPath;
         private final Path filePath;
         private final ResourceType type;
@@ -124,29 +232,33 @@ class OpenResourceHandler implements HttpHandler {
         }
     }
 
-    private enum ResourceType {
-        MAIN_RESOURCE("Main"),
-        GENERATED_RESOURCE("Generated"),
-        TEST_RESOURCE("Test");
-
-        private final String displayName;
-
-        ResourceType(String displayName) {
-            this.displayName = displayName;
-        }
-
-        @Override
-        public String toString() {
-            return displayName;
-        }
+    Set<ResourceMatch> findResourcesByPath(String pathPattern, Path projectPath, boolean focusTestResource) throws IOException {
+        return findResourcesByPath(pathPattern, projectPath, focusTestResource, match -> {
+        });
     }
 
-    private Set<ResourceMatch> findResourcesByPath(String pathPattern, Path projectPath, boolean focusTestResource) throws IOException {
+    /**
+     * Paths without wildcards are looked up in the suffix trie of the {@link ResourceIndex}. Per root that is the
+     * exact path if the root has it, otherwise every file with the same name, like the walk of every root did. Only
+     * when no root has a file ending with the path are all files scanned for a partial match, so a path like "mail/wel"
+     * only finds "mail/welcome.html" if no file ends with it.
+     *
+     * @param sink gets every match as soon as it is found and can cancel the rest of the search.
+     * @return the matches found, in search order.
+     */
+    Set<ResourceMatch> findResourcesByPath(String pathPattern, Path projectPath, boolean focusTestResource, MatchSink sink) throws IOException {
         projectPath = resolveProjectPath(projectPath);
-        Set<ResourceMatch> allMatches = new HashSet<>();
+        Set<ResourceMatch> allMatches = new LinkedHashSet<>();
+        long start = System.nanoTime();
+        ProjectIndex index = ProjectIndex.get(projectPath);
+        INDEX_TIME.recordSince(start);
+        start = System.nanoTime();
+        long examined = 0;
+        JfrEvents.ResourceSearch event = new JfrEvents.ResourceSearch();
+        event.begin();
 
         // Define resource directories to search
-        Map<ResourceType, List<Path>> resourceDirs = getResourceDirectories(projectPath);
+        Map<ResourceType, List<ResourceIndex.Root>> resourceDirs = getResourceDirectories(index);
         List<ResourceType> searchOrder = getSearchOrder(focusTestResource);
 
         // Clean up path pattern
@@ -157,73 +269,69 @@ class OpenResourceHandler implements HttpHandler {
         // Check if the path contains wildcards
         boolean hasWildcards = pathPattern.contains("**") || pathPattern.contains("*");
         final String finalPattern = pathPattern;
+        // Suffix lookup in the index, also covers the direct path and the exact file name match
+        Map<ResourceIndex.Root, List<Path>> pathMatches = hasWildcards ? Collections.emptyMap() : index.getResources().findByPathSuffix(finalPattern);
 
-        for (ResourceType resourceType : searchOrder) {
-            for (Path resourceDir : resourceDirs.get(resourceType)) {
-                if (!Files.exists(resourceDir)) {
-                    continue;
-                }
-
-                try (Stream<Path> walk = Files.walk(resourceDir)) {
-                    List<Path> matches;
+        PathMatcher globMatcher = hasWildcards ? FileSystems.getDefault().getPathMatcher("glob:" + convertToGlobPattern(finalPattern)) : null;
+        String fileName = hasWildcards ? null : Paths.get(finalPattern).getFileName().toString();
+        // every file with the same name, for the roots that do not have the exact path
+        Map<ResourceIndex.Root, List<Path>> nameMatches = hasWildcards || pathMatches.isEmpty() || fileName.equals(finalPattern)
+                ? pathMatches : index.getResources().findByPathSuffix(fileName);
 
+        search:
+        for (ResourceType resourceType : searchOrder) {
+            for (ResourceIndex.Root root : resourceDirs.get(resourceType)) {
+                Path resourceDir = root.dir();
+                // Files whose path ends with all segments of the requested path, e.g. templates/mail/welcome.html
+                Collection<Path> files = hasWildcards || pathMatches.isEmpty() ? index.getResources().getFiles(root) : indexedMatches(root, finalPattern, pathMatches, nameMatches);
+
+                for (Path file : files) {
+                    if (sink.isCancelled()) break search;
+                    boolean matches;
                     if (hasWildcards) {
-                        // Convert path pattern with wildcards to glob pattern
-                        String globPattern = convertToGlobPattern(finalPattern);
-                        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + globPattern);
-
+                        examined++;
                         // Search with glob pattern
-                        matches = walk
-                                .filter(Files::isRegularFile)
-                                .filter(p -> {
-                                    Path relativePath = resourceDir.relativize(p);
-                                    return matcher.matches(relativePath);
-                                })
-                                .collect(Collectors.toList());
+                        matches = globMatcher.matches(resourceDir.relativize(file));
+                    } else if (!pathMatches.isEmpty()) {
+                        matches = true;
                     } else {
-                        // First try direct path match
-                        Path targetPath = resourceDir.resolve(finalPattern);
-                        if (Files.exists(targetPath) && Files.isRegularFile(targetPath)) {
-                            matches = Collections.singletonList(targetPath);
-                        } else {
-                            // Then try more flexible matching strategies
-                            String fileName = Paths.get(finalPattern).getFileName().toString();
-
-                            matches = walk
-                                    .filter(Files::isRegularFile)
-                                    .filter(p -> {
-                                        // Match by exact filename
-                                        if (p.getFileName().toString().equals(fileName)) {
-                                            return true;
-                                        }
-
-                                        // Match by path ending
-                                        String relativePath = resourceDir.relativize(p).toString().replace(File.separator, "/");
-                                        // Check if the path ends with the requested path or path without leading slash
-                                        return relativePath.endsWith(finalPattern) ||
-                                                (finalPattern.contains("/") && relativePath.endsWith(finalPattern)) ||
-                                                // Also check partial path matching
-                                                (finalPattern.contains("/") && relativePath.contains(finalPattern));
-                                    })
-                                    .collect(Collectors.toList());
-                        }
+                        examined++;
+                        // Then try more flexible matching strategies: exact file name, path ending, partial path
+                        String relativePath = resourceDir.relativize(file).toString().replace(File.separator, "/");
+                        matches = file.getFileName().toString().equals(fileName)
+                                || relativePath.endsWith(finalPattern)
+                                || (finalPattern.contains("/") && relativePath.contains(finalPattern));
                     }
-
-                    // Add matches with their type
-                    for (Path match : matches) {
-                        allMatches.add(new ResourceMatch(projectPath, match, resourceType));
+                    if (matches) {
+                        ResourceMatch match = new ResourceMatch(projectPath, file, resourceType);
+                        if (allMatches.add(match)) sink.accept(match);
                     }
                 }
             }
         }
 
+        SEARCH_TIME.recordSince(start);
+        FILES_EXAMINED.record(examined);
+        if (hasWildcards || pathMatches.isEmpty()) {
+            SCAN_SEARCHES.increment();
+        } else {
+            SUFFIX_SEARCHES.increment();
+        }
+        if (event.shouldCommit()) {
+            event.pattern = finalPattern;
+            event.kind = hasWildcards ? "glob" : pathMatches.isEmpty() ? "scan" : "suffix";
+            event.filesVisited = examined;
+            event.matches = allMatches.size();
+            event.commit();
+        }
+
         // Debug info when no matches found
         if (allMatches.isEmpty()) {
             System.out.println("No matches found for: " + finalPattern);
             System.out.println("Searched directories:");
             for (ResourceType type : searchOrder) {
-                for (Path dir : resourceDirs.get(type)) {
-                    System.out.println(" - " + dir + " (exists: " + Files.exists(dir) + ")");
+                for (ResourceIndex.Root root : resourceDirs.get(type)) {
+                    System.out.println(" - " + root.dir() + " (" + index.getResources().getFiles(root).size() + " files)");
                 }
             }
         }
@@ -231,7 +339,13 @@ class OpenResourceHandler implements HttpHandler {
         return allMatches;
     }
 
-    private String convertToGlobPattern(String pattern) {
+    private static List<Path> indexedMatches(ResourceIndex.Root root, String path, Map<ResourceIndex.Root, List<Path>> pathMatches, Map<ResourceIndex.Root, List<Path>> nameMatches) {
+        Path direct = root.dir().resolve(path).normalize();
+        if (pathMatches.getOrDefault(root, Collections.emptyList()).contains(direct)) return List.of(direct);
+        return nameMatches.getOrDefault(root, Collections.emptyList());
+    }
+
+    String convertToGlobPattern(String pattern) {
         // Handle empty pattern
         if (pattern == null || pattern.isEmpty()) {
             return "**";
@@ -264,37 +378,58 @@ class OpenResourceHandler implements HttpHandler {
         return pattern;
     }
 
-    private Set<ResourceMatch> findResourcesByRegex(String regex, Path projectPath, boolean focusTestResource) throws IOException {
+    Set<ResourceMatch> findResourcesByRegex(String regex, Path projectPath, boolean focusTestResource) throws IOException {
+        return findResourcesByRegex(regex, projectPath, focusTestResource, match -> {
+        });
+    }
+
+    /**
+     * @param sink gets every match as soon as it is found and can cancel the rest of the search.
+     * @return the matches found, in search order.
+     */
+    Set<ResourceMatch> findResourcesByRegex(String regex, Path projectPath, boolean focusTestResource, MatchSink sink) throws IOException {
         projectPath = resolveProjectPath(projectPath);
-        Set<ResourceMatch> allMatches = new HashSet<>();
+        Set<ResourceMatch> allMatches = new LinkedHashSet<>();
+        long start = System.nanoTime();
+        ProjectIndex index = ProjectIndex.get(projectPath);
+        INDEX_TIME.recordSince(start);
+        start = System.nanoTime();
+        long examined = 0;
+        JfrEvents.ResourceSearch event = new JfrEvents.ResourceSearch();
+        event.begin();
 
         // Define resource directories to search
-        Map<ResourceType, List<Path>> resourceDirs = getResourceDirectories(projectPath);
+        Map<ResourceType, List<ResourceIndex.Root>> resourceDirs = getResourceDirectories(index);
         List<ResourceType> searchOrder = getSearchOrder(focusTestResource);
 
         // Compile regex pattern
         Pattern pattern = Pattern.compile(regex);
 
+        search:
         for (ResourceType resourceType : searchOrder) {
-            for (Path resourceDir : resourceDirs.get(resourceType)) {
-                if (!Files.exists(resourceDir)) {
-                    continue;
-                }
-
-                List<Path> matches = Files.walk(resourceDir)
-                        .filter(Files::isRegularFile)
-                        .filter(p -> {
-                            String relativePath = resourceDir.relativize(p).toString().replace(File.separator, "/");
-                            return pattern.matcher(relativePath).matches();
-                        })
-                        .toList();
-
-                // Add matches with their type
-                for (Path match : matches) {
-                    allMatches.add(new ResourceMatch(projectPath, match, resourceType));
+            for (ResourceIndex.Root root : resourceDirs.get(resourceType)) {
+                Path resourceDir = root.dir();
+                for (Path file : index.getResources().getFiles(root)) {
+                    if (sink.isCancelled()) break search;
+                    examined++;
+                    String relativePath = resourceDir.relativize(file).toString().replace(File.separator, "/");
+                    if (pattern.matcher(relativePath).matches()) {
+                        ResourceMatch match = new ResourceMatch(projectPath, file, resourceType);
+                        if (allMatches.add(match)) sink.accept(match);
+                    }
                 }
             }
         }
+        SEARCH_TIME.recordSince(start);
+        FILES_EXAMINED.record(examined);
+        SCAN_SEARCHES.increment();
+        if (event.shouldCommit()) {
+            event.pattern = regex;
+            event.kind = "regex";
+            event.filesVisited = examined;
+            event.matches = allMatches.size();
+            event.commit();
+        }
 
         return allMatches;
     }
@@ -304,160 +439,10 @@ class OpenResourceHandler implements HttpHandler {
                 .toAbsolutePath().normalize();
     }
 
-    private Map<ResourceType, List<Path>> getResourceDirectories(Path projectPath) {
-        Map<ResourceType, List<Path>> resourceDirs = new HashMap<>();
-        List<Path> moduleRoots = findAllModuleRoots(projectPath);
-
-        // Common resource directories for all Java project types
-        List<Path> mainResDirs = new ArrayList<>();
-        List<Path> genResDirs = new ArrayList<>();
-        List<Path> testResDirs = new ArrayList<>();
-
-        for (Path moduleRoot : moduleRoots) {
-            // Main resources - standard patterns across build systems
-            mainResDirs.add(moduleRoot.resolve("src/main/resources"));
-            mainResDirs.add(moduleRoot.resolve("src/resources"));
-            mainResDirs.add(moduleRoot.resolve("resources"));
-            mainResDirs.add(moduleRoot.resolve("WebContent/WEB-INF/classes"));
-            mainResDirs.add(moduleRoot.resolve("web/WEB-INF/classes"));
-
-            // Generated resources only (not built copies of source resources)
-            genResDirs.add(moduleRoot.resolve("build/generated/resources"));
-            genResDirs.add(moduleRoot.resolve("out/production/generated-resources"));
-            genResDirs.add(moduleRoot.resolve("target/generated-resources"));
-
-            // Test resources
-            testResDirs.add(moduleRoot.resolve("src/test/resources"));
-            testResDirs.add(moduleRoot.resolve("test/resources"));
-            testResDirs.add(moduleRoot.resolve("build/generated/resources/test"));
-            testResDirs.add(moduleRoot.resolve("out/test/resources"));
-            testResDirs.add(moduleRoot.resolve("target/test-classes"));
-        }
-
-        // Add resource directories found by general search
-        try {
-            findAllResourceDirectories(projectPath, 4).forEach(dir -> {
-                String path = dir.toString().toLowerCase();
-                if (path.contains("test")) {
-                    testResDirs.add(dir);
-                } else if (path.contains("build") || path.contains("target") || path.contains("out")) {
-                    genResDirs.add(dir);
-                } else {
-                    mainResDirs.add(dir);
-                }
-            });
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        resourceDirs.put(ResourceType.MAIN_RESOURCE, mainResDirs);
-        resourceDirs.put(ResourceType.GENERATED_RESOURCE, genResDirs);
-        resourceDirs.put(ResourceType.TEST_RESOURCE, testResDirs);
-
-        return resourceDirs;
-    }
-
-    private List<Path> findAllResourceDirectories(Path projectPath, int maxDepth) throws IOException {
-        List<Path> resourceDirs = new ArrayList<>();
-
-        // Find all directories named "resources"
-        try (Stream<Path> paths = Files.walk(projectPath, maxDepth)) {
-            paths.filter(Files::isDirectory)
-                    .filter(p -> p.getFileName().toString().equalsIgnoreCase("resources") ||
-                            p.getFileName().toString().endsWith("Resources"))
-                    .forEach(resourceDirs::add);
-        }
-
-        // Also check for "webapp" directories which often contain web resources
-        try (Stream<Path> paths = Files.walk(projectPath, maxDepth)) {
-            paths.filter(Files::isDirectory)
-                    .filter(p -> p.getFileName().toString().equalsIgnoreCase("webapp") ||
-                            p.getFileName().toString().equalsIgnoreCase("WebContent"))
-                    .forEach(resourceDirs::add);
-        }
-
-        return resourceDirs;
-    }
-
-    private List<Path> findAllModuleRoots(Path projectPath) {
-        List<Path> moduleRoots = new ArrayList<>();
-
-        // Always include the project root
-        moduleRoots.add(projectPath);
-
-        try {
-            // Find module roots based on common project files (Gradle, Maven, IntelliJ)
-            try (Stream<Path> paths = Files.walk(projectPath, 3)) { // Increased depth to catch more modules
-                paths.filter(Files::isRegularFile)
-                        .filter(p -> {
-                            String fileName = p.getFileName().toString();
-                            return fileName.equals("build.gradle") ||
-                                    fileName.equals("build.gradle.kts") ||
-                                    fileName.equals("pom.xml") ||
-                                    fileName.endsWith(".iml");
-                        })
-                        .map(Path::getParent)
-                        .filter(path -> !path.equals(projectPath)) // Skip the root project we already added
-                        .forEach(moduleRoots::add);
-            }
-
-            // Check for settings files to find included projects
-            checkSettingsFile(projectPath, "settings.gradle", moduleRoots);
-            checkSettingsFile(projectPath, "settings.gradle.kts", moduleRoots);
-
-            // Check for Maven modules
-            Path mavenModules = projectPath.resolve("pom.xml");
-            if (Files.exists(mavenModules)) {
-                List<String> lines = Files.readAllLines(mavenModules);
-                boolean inModules = false;
-                for (String line : lines) {
-                    if (line.contains("<modules>")) inModules = true;
-                    else if (line.contains("</modules>")) inModules = false;
-                    else if (inModules && line.contains("<module>")) {
-                        String module = line.replaceAll(".*<module>(.*)</module>.*", "$1").trim();
-                        Path moduleRoot = projectPath.resolve(module);
-                        if (Files.isDirectory(moduleRoot)) {
-                            moduleRoots.add(moduleRoot);
-                        }
-                    }
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return moduleRoots;
-    }
-
-    private void checkSettingsFile(Path projectPath, String filename, List<Path> moduleRoots) {
-        Path settingsFile = projectPath.resolve(filename);
-        if (Files.exists(settingsFile)) {
-            try {
-                List<String> lines = Files.readAllLines(settingsFile);
-                for (String line : lines) {
-                    line = line.trim();
-                    if (line.contains("include") && line.contains("\"")) {
-                        // Extract project name from include statement
-                        int startIndex = line.indexOf("\"") + 1;
-                        int endIndex = line.indexOf("\"", startIndex);
-                        if (startIndex > 0 && endIndex > startIndex) {
-                            String projectName = line.substring(startIndex, endIndex);
-                            // Convert project path format to directory
-                            if (projectName.startsWith(":")) {
-                                projectName = projectName.substring(1);
-                            }
-                            projectName = projectName.replace(":", "/");
-                            Path moduleRoot = projectPath.resolve(projectName);
-                            if (Files.isDirectory(moduleRoot)) {
-                                moduleRoots.add(moduleRoot);
-                            }
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+    private Map<ResourceType, List<ResourceIndex.Root>> getResourceDirectories(ProjectIndex index) {
+        // All files under resource directories are already in the index, classified by the directory they are in.
+        // Only the module relative directories still depend on which directories are modules.
+        return index.getResources().getRoots(ModuleModel.of(index).getModuleRoots());
     }
 
     private List<ResourceType> getSearchOrder(boolean focusTestResource) {
@@ -476,63 +461,113 @@ class OpenResourceHandler implements HttpHandler {
         }
     }
 
-    private void showResourceSelectionDialog(HttpExchange exchange, Set<ResourceMatch> matches,
-                                             String project, String line) {
-        try {
-            // Set system look and feel
+    private void sendError(HttpExchange exchange, int code, String message) throws IOException {
+        exchange.sendResponseHeaders(code, message.getBytes().length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(message.getBytes());
+        os.close();
+    }
+
+    /**
+     * The chooser for ambiguous resources. Opened by the search as soon as a second match is found, the rest of the
+     * matches are added while the search goes on. Picking one or closing the window cancels the search and answers the
+     * request; all Swing work happens on the event dispatch thread.
+     */
+    static class ResourceChooser {
+        private static final String TITLE = "Select Resource File";
+        private final HttpExchange exchange;
+        private final String project;
+        private final String line;
+        private final JfrEvents.Dialog event = new JfrEvents.Dialog();
+        // created in show(), only used on the event dispatch thread
+        private JFrame frame;
+        private JLabel label;
+        private JPanel buttonsPanel;
+        private volatile boolean closed = false;
+        private boolean answered = false;
+
+        ResourceChooser(HttpExchange exchange, String project, String line) {
+            this.exchange = exchange;
+            this.project = project;
+            this.line = line;
+            event.begin();
+            event.title = TITLE;
+            SwingUtilities.invokeLater(this::show);
+        }
 
-            JFrame frame = new JFrame("Select Resource File");
+        private void show() {
+            frame = new JFrame(TITLE);
+            label = new JLabel("Searching for more resource files...");
+            buttonsPanel = new JPanel();
             frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent e) {
+                    closed = true;
+                    if (!answered) {
+                        answered = true;
+                        try {
+                            IntelijHandler.sendCloseTab(exchange);
+                        } catch (IOException ex) {
+                            ex.printStackTrace();
+                        }
+                    }
+                    // committed once, with the choice if a button closed the frame
+                    event.commit();
+                }
+            });
             frame.setSize(700, 400);
 
             JPanel panel = new JPanel();
             panel.setLayout(new BorderLayout());
-
-            JLabel label = new JLabel("Multiple resource files found. Please select one:");
             panel.add(label, BorderLayout.NORTH);
 
-            JPanel buttonsPanel = new JPanel();
             buttonsPanel.setLayout(new BoxLayout(buttonsPanel, BoxLayout.Y_AXIS));
+            JScrollPane scrollPane = new JScrollPane(buttonsPanel);
+            scrollPane.getVerticalScrollBar().setUnitIncrement(6);
+            panel.add(scrollPane, BorderLayout.CENTER);
+
+            frame.add(panel);
+            frame.setLocationRelativeTo(null);
+            frame.setVisible(true);
+        }
 
-            for (ResourceMatch match : matches) {
+        /**
+         * Adds a button for the match, below the ones found before.
+         */
+        void add(ResourceMatch match) {
+            SwingUtilities.invokeLater(() -> {
+                if (closed) return;
                 JButton button = new JButton(match.getDisplayPath());
                 button.setAlignmentX(Component.LEFT_ALIGNMENT);
                 button.setHorizontalAlignment(SwingConstants.LEFT);
-
-                button.addActionListener(e -> {
-                    try {
-                        openFileInIntelliJ(exchange, project, match.getRelativePath(), line);
-                    } catch (IOException ex) {
-                        ex.printStackTrace();
-                    }
-                    frame.dispose();
-                });
+                button.addActionListener(e -> choose(match));
 
                 buttonsPanel.add(button);
                 buttonsPanel.add(Box.createRigidArea(new Dimension(0, 5)));
-            }
-
-            JScrollPane scrollPane = new JScrollPane(buttonsPanel);
-            scrollPane.getVerticalScrollBar().setUnitIncrement(6);
-            panel.add(scrollPane, BorderLayout.CENTER);
+                buttonsPanel.revalidate();
+                event.options++;
+            });
+        }
 
-            frame.add(panel);
-            frame.setLocationRelativeTo(null);
-            frame.setVisible(true);
-        } catch (Exception e) {
-            e.printStackTrace();
+        private void choose(ResourceMatch match) {
+            closed = true;
+            answered = true;
+            event.choice = match.getRelativePath();
             try {
-                sendError(exchange, 500, "Error displaying file selection dialog");
-            } catch (IOException ioEx) {
-                ioEx.printStackTrace();
+                openFileInIntelliJ(exchange, project, match.getRelativePath(), line);
+            } catch (IOException ex) {
+                ex.printStackTrace();
             }
+            frame.dispose();
         }
-    }
 
-    private void sendError(HttpExchange exchange, int code, String message) throws IOException {
-        exchange.sendResponseHeaders(code, message.getBytes().length);
-        OutputStream os = exchange.getResponseBody();
-        os.write(message.getBytes());
-        os.close();
+        void searchFinished() {
+            SwingUtilities.invokeLater(() -> label.setText("Multiple resource files found. Please select one:"));
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,292 @@
+package de.hype;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the package declaration of a Java or Kotlin source without reading the whole file.
+ * <p>
+ * Only the first few KB are read into a pooled direct buffer. A small lexer skips whitespace, line, block (nested for
+ * Kotlin) and KDoc comments, a shebang and file level annotations like {@code @file:JvmName("Utils")} and stops at the
+ * first {@code package} declaration or at the first other token, which means the file is in the default package.
+ * The terminating semicolon is optional, as it is in Kotlin.
+ */
+class PackageHeaderReader {
+    private static final int HEADER_BYTES = 8 * 1024;
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+    // not a ThreadLocal: requests run on virtual threads, which would allocate a new buffer for every request
+    private static final BlockingQueue<ByteBuffer> BUFFERS = new ArrayBlockingQueue<>(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    private static final int EOF = -1;
+
+    /**
+     * Thrown internally when the header does not fit into the bytes read so far.
+     */
+    private static class TruncatedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        TruncatedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final boolean kotlin;
+    private final boolean complete;
+    private int position;
+
+    private PackageHeaderReader(ByteBuffer buffer, boolean kotlin, boolean complete) {
+        this.buffer = buffer;
+        this.kotlin = kotlin;
+        this.complete = complete;
+        this.position = 0;
+    }
+
+    /**
+     * @return the declared package with '.' separators, an empty string for the default package.
+     * @throws IOException if the file can not be read or the header is larger than {@value MAX_HEADER_BYTES} bytes.
+     */
+    static String readPackage(Path file) throws IOException {
+        boolean kotlin = file.getFileName().toString().endsWith(".kt");
+        ByteBuffer buffer = BUFFERS.poll();
+        if (buffer == null) buffer = ByteBuffer.allocateDirect(HEADER_BYTES);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            boolean complete = fill(channel, buffer);
+            try {
+                return new PackageHeaderReader(buffer, kotlin, complete).parse();
+            } catch (TruncatedException e) {
+                // very long license header, retry once with a bigger buffer
+                ByteBuffer bigBuffer = ByteBuffer.allocate(MAX_HEADER_BYTES);
+                channel.position(0);
+                complete = fill(channel, bigBuffer);
+                try {
+                    return new PackageHeaderReader(bigBuffer, kotlin, complete).parse();
+                } catch (TruncatedException e2) {
+                    throw new IOException("Header of " + file + " is larger than " + MAX_HEADER_BYTES + " bytes");
+                }
+            }
+        } finally {
+            // dropped if the pool is full
+            BUFFERS.offer(buffer);
+        }
+    }
+
+    /**
+     * @return true if the whole file fit into the buffer.
+     */
+    private static boolean fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                buffer.flip();
+                return true;
+            }
+        }
+        buffer.flip();
+        return false;
+    }
+
+    private String parse() throws TruncatedException {
+        try {
+            skipBom();
+            skipShebang();
+            while (true) {
+                skipTrivia();
+                int c = peek();
+                if (c == '@') {
+                    skipAnnotation();
+                } else if (isIdentifierStart(c)) {
+                    String keyword = readIdentifier();
+                    if (!keyword.equals("package")) return "";
+                    return readQualifiedName();
+                } else {
+                    return "";
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new TruncatedException();
+        }
+    }
+
+    /**
+     * @return the byte at the offset from the current position or {@link #EOF} at the end of the file.
+     * @throws IndexOutOfBoundsException if the offset is behind the bytes read but the file continues.
+     */
+    private int peek(int offset) {
+        int index = position + offset;
+        if (index < buffer.limit()) return buffer.get(index) & 0xFF;
+        if (complete) return EOF;
+        throw new IndexOutOfBoundsException();
+    }
+
+    private int peek() {
+        return peek(0);
+    }
+
+    private void skipBom() {
+        if (peek(0) == 0xEF && peek(1) == 0xBB && peek(2) == 0xBF) position += 3;
+    }
+
+    private void skipShebang() {
+        if (peek(0) == '#' && peek(1) == '!') skipLine();
+    }
+
+    private void skipLine() {
+        while (peek() != EOF && peek() != '\n') position++;
+    }
+
+    private void skipTrivia() {
+        while (true) {
+            int c = peek();
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+                position++;
+            } else if (c == '/' && peek(1) == '/') {
+                skipLine();
+            } else if (c == '/' && peek(1) == '*') {
+                skipBlockComment();
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void skipBlockComment() {
+        position += 2;
+        int depth = 1;
+        while (true) {
+            int c = peek();
+            if (c == EOF) return;
+            if (c == '*' && peek(1) == '/') {
+                position += 2;
+                if (--depth == 0) return;
+            } else if (kotlin && c == '/' && peek(1) == '*') {
+                // Kotlin block comments nest, Java ones do not
+                position += 2;
+                depth++;
+            } else {
+                position++;
+            }
+        }
+    }
+
+    private void skipAnnotation() {
+        position++; // @
+        skipTrivia();
+        readIdentifier();
+        skipTrivia();
+        if (peek() == ':') {
+            // use site target like @file:JvmName(...) or @file:[A B]
+            position++;
+            skipTrivia();
+            if (peek() == '[') {
+                skipBalanced('[', ']');
+                return;
+            }
+            readIdentifier();
+        }
+        while (true) {
+            skipTrivia();
+            if (peek() != '.') break;
+            position++;
+            skipTrivia();
+            readIdentifier();
+        }
+        skipTrivia();
+        if (peek() == '(') skipBalanced('(', ')');
+    }
+
+    private void skipBalanced(char open, char close) {
+        int depth = 0;
+        while (true) {
+            int c = peek();
+            if (c == EOF) return;
+            if (c == '"' || c == '\'') {
+                skipStringLiteral(c);
+                continue;
+            }
+            if (c == '/' && (peek(1) == '/' || peek(1) == '*')) {
+                skipTrivia();
+                continue;
+            }
+            position++;
+            if (c == open) {
+                depth++;
+            } else if (c == close && --depth == 0) {
+                return;
+            }
+        }
+    }
+
+    private void skipStringLiteral(int quote) {
+        if (quote == '"' && peek(1) == '"' && peek(2) == '"') {
+            // text block / raw string
+            position += 3;
+            while (peek() != EOF && !(peek() == '"' && peek(1) == '"' && peek(2) == '"')) position++;
+            position += 3;
+            return;
+        }
+        position++;
+        while (true) {
+            int c = peek();
+            if (c == EOF) return;
+            position++;
+            if (c == '\\') {
+                position++;
+            } else if (c == quote || c == '\n') {
+                return;
+            }
+        }
+    }
+
+    private static boolean isIdentifierStart(int c) {
+        return c != EOF && (Character.isJavaIdentifierStart(c) || c == '`' || c >= 0x80);
+    }
+
+    private static boolean isIdentifierPart(int c) {
+        return c != EOF && (Character.isJavaIdentifierPart(c) || c >= 0x80);
+    }
+
+    private String readIdentifier() {
+        int start = position;
+        if (peek() == '`') {
+            // Kotlin escaped identifier
+            position++;
+            while (peek() != EOF && peek() != '`' && peek() != '\n') position++;
+            String name = decode(start + 1, position);
+            if (peek() == '`') position++;
+            return name;
+        }
+        while (isIdentifierPart(peek())) position++;
+        return decode(start, position);
+    }
+
+    private String readQualifiedName() {
+        StringBuilder name = new StringBuilder();
+        skipTrivia();
+        name.append(readIdentifier());
+        while (true) {
+            // the name ends at ';' or, in Kotlin, at the end of the line, so only look ahead on the same line
+            skipInlineWhitespace();
+            if (peek() != '.') break;
+            position++;
+            skipInlineWhitespace();
+            name.append('.').append(readIdentifier());
+        }
+        return name.toString();
+    }
+
+    private void skipInlineWhitespace() {
+        while (peek() == ' ' || peek() == '\t') position++;
+    }
+
+    private String decode(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,69 @@
+package de.hype;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Indexes every project in the projects directory in the background after startup, most recently used first
+ * ({@link ProjectHistory}), so the first click into a project does not pay for its crawl.
+ * <p>
+ * Runs on {@code -Dhype.preindex.threads} (default 1) minimum priority threads and never crawls a project that already
+ * has an index, restored snapshots included. A request for a project that is being indexed waits for that crawl
+ * instead of starting its own. Pre-indexed projects are not watched until they are requested. {@code -Dhype.preindex=false} turns it off, it is off by default when headless.
+ */
+class Preindexer {
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("hype.preindex", String.valueOf(!Main.HEADLESS)));
+    private static final int THREADS = Math.max(1, Integer.getInteger("hype.preindex.threads", 1));
+
+    static void start() {
+        if (!ENABLED) return;
+        Path projectsDirectory = Main.projectsDirectory();
+        if (!Files.isDirectory(projectsDirectory)) return;
+
+        Set<Path> loaded = new HashSet<>();
+        for (ProjectIndex index : ProjectIndex.getLoadedIndexes()) {
+            loaded.add(index.getProjectPath());
+        }
+        List<Path> projects = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(projectsDirectory, Files::isDirectory)) {
+            for (Path project : stream) {
+                Path normalized = project.toAbsolutePath().normalize();
+                if (!project.getFileName().toString().startsWith(".") && !loaded.contains(normalized)) projects.add(normalized);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (projects.isEmpty()) return;
+        projects.sort(Comparator.comparing(project -> project.getFileName().toString(), ProjectHistory.mostRecentFirst()));
+        System.out.println("Indexing %d projects in the background, starting with %s".formatted(projects.size(), projects.get(0).getFileName()));
+
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "Preindexer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        for (Path project : projects) {
+            executor.execute(() -> {
+                try {
+                    ProjectIndex.preload(project);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,250 @@
+package de.hype;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Walks a project and prunes ignored directories with {@link FileVisitResult#SKIP_SUBTREE}, so nothing below them is
+ * ever listed or stat'ed.
+ * <p>
+ * A path is skipped if it matches the deny list ({@code -Dhype.crawler.deny}, comma separated gitignore patterns) or the
+ * .gitignore / .ignore files of its directory and all parent directories up to the project root, deeper files taking
+ * precedence. Generated sources and resources are usually ignored by git but are exactly what we want to find, so
+ * the paths in {@code -Dhype.crawler.keep} are walked even if a .gitignore excludes them.
+ */
+class ProjectCrawler {
+    private static final IgnoreRules DENY_LIST = IgnoreRules.parse(List.of(System.getProperty("hype.crawler.deny",
+            ".git/,.gradle/,.idea/,node_modules/,**/build/tmp/,**/build/classes/,**/build/kotlin/,**/build/libs/").split(",")));
+    private static final List<List<String>> KEEP_PATHS = parseKeepPaths(System.getProperty("hype.crawler.keep",
+            "build/generated,target/generated-sources,target/generated-test-sources,target/generated-resources,target/test-classes,out/production/generated-resources,out/test/resources"));
+    private static final String[] IGNORE_FILES = {".gitignore", ".ignore"};
+    private static final Map<Path, ProjectCrawler> CRAWLERS = new ConcurrentHashMap<>();
+    private static final Metrics.Histogram FILES_VISITED = Metrics.sizes("hype_crawl_files_visited", "Files and directories visited per crawl, after ignore rules.");
+    private static final Metrics.Counter SKIPPED_DIRECTORIES = Metrics.counter("hype_crawl_directories_skipped_total", "Directories not walked because of ignore rules or the deny list.");
+
+    interface Visitor {
+        default void directory(Path dir, BasicFileAttributes attrs) {
+        }
+
+        void file(Path file, BasicFileAttributes attrs);
+    }
+
+    /**
+     * How a directory is walked.
+     *
+     * @param rules        the ignore rules of this directory, null if .gitignore files do not apply here.
+     * @param pendingKeeps null for normal directories. For an ignored directory that is only walked because a keep
+     *                     path goes through it, the rest of those keep paths.
+     */
+    private record Frame(Path dir, IgnoreRules rules, List<List<String>> pendingKeeps) {
+        boolean forced() {
+            return rules == null && pendingKeeps == null;
+        }
+    }
+
+    private final Path projectPath;
+    // parsed ignore files per directory, invalidated when the watcher sees one of them change
+    private final Map<Path, IgnoreRules> rulesCache = new ConcurrentHashMap<>();
+
+    private ProjectCrawler(Path projectPath) {
+        this.projectPath = projectPath;
+    }
+
+    static ProjectCrawler forProject(Path projectPath) {
+        return CRAWLERS.computeIfAbsent(projectPath, ProjectCrawler::new);
+    }
+
+    static void evict(Path projectPath) {
+        CRAWLERS.remove(projectPath);
+    }
+
+    private static List<List<String>> parseKeepPaths(String value) {
+        List<List<String>> paths = new ArrayList<>();
+        for (String path : value.split(",")) {
+            path = path.trim();
+            if (!path.isEmpty()) paths.add(List.of(path.split("/")));
+        }
+        return paths;
+    }
+
+    static boolean isIgnoreFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.equals(".gitignore") || name.equals(".ignore");
+    }
+
+    /**
+     * Forgets the cached rules of a directory after one of its ignore files changed.
+     */
+    void invalidate(Path dir) {
+        rulesCache.remove(dir);
+    }
+
+    void crawl(Visitor visitor) {
+        crawl(projectPath, Integer.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Walks a directory of the project, applying the ignore rules of its parents as well.
+     */
+    void crawl(Path start, int maxDepth, Visitor visitor) {
+        Deque<Frame> frames = framesFor(start.getParent());
+        if (!start.equals(projectPath) && frames == null) return; // start itself is inside an ignored directory
+        Deque<Frame> stack = frames == null ? new ArrayDeque<>() : frames;
+        long[] visited = {0};
+        long[] skipped = {0};
+        JfrEvents.Walk event = new JfrEvents.Walk();
+        event.begin();
+        try {
+            Files.walkFileTree(start, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    Frame frame = stack.isEmpty() ? rootFrame(dir) : childFrame(stack, dir);
+                    if (frame == null) {
+                        skipped[0]++;
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    visited[0]++;
+                    stack.push(frame);
+                    visitor.directory(dir, attrs);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isDirectory()) {
+                        // directories at maxDepth are reported as files
+                        if (childFrame(stack, file) != null) visitor.directory(file, attrs);
+                        return FileVisitResult.CONTINUE;
+                    }
+                    visited[0]++;
+                    if (!isFileIgnored(stack, file)) visitor.file(file, attrs);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                    stack.pop();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        FILES_VISITED.record(visited[0]);
+        SKIPPED_DIRECTORIES.add(skipped[0]);
+        if (event.shouldCommit()) {
+            event.start = start.toString();
+            event.maxDepth = maxDepth;
+            event.filesVisited = visited[0];
+            event.directoriesSkipped = skipped[0];
+            event.commit();
+        }
+    }
+
+    /**
+     * @return whether a single path inside the project would be skipped by a crawl. Used for watcher events.
+     */
+    boolean isIgnored(Path path, boolean directory) {
+        if (path.equals(projectPath)) return false;
+        Deque<Frame> frames = framesFor(path.getParent());
+        if (frames == null) return true;
+        if (directory) return childFrame(frames, path) == null;
+        return isFileIgnored(frames, path);
+    }
+
+    /**
+     * @return the frames from the project root down to the directory, null if the directory itself is skipped.
+     */
+    private Deque<Frame> framesFor(Path dir) {
+        if (dir == null || !dir.startsWith(projectPath)) return null;
+        Deque<Frame> frames = new ArrayDeque<>();
+        frames.push(rootFrame(projectPath));
+        Path current = projectPath;
+        for (Path segment : projectPath.relativize(dir)) {
+            if (segment.toString().isEmpty()) continue;
+            current = current.resolve(segment);
+            Frame frame = childFrame(frames, current);
+            if (frame == null) return null;
+            frames.push(frame);
+        }
+        return frames;
+    }
+
+    private Frame rootFrame(Path dir) {
+        return new Frame(dir, rulesOf(dir), null);
+    }
+
+    private IgnoreRules rulesOf(Path dir) {
+        IgnoreRules rules = rulesCache.get(dir);
+        if (rules == null) {
+            rules = IgnoreRules.read(dir, IGNORE_FILES);
+            if (dir.equals(projectPath)) {
+                // .git/info/exclude has a lower precedence than the root .gitignore
+                IgnoreRules exclude = IgnoreRules.read(dir.resolve(".git").resolve("info"), "exclude");
+                if (!exclude.isEmpty()) rules = IgnoreRules.combine(exclude, rules);
+            }
+            rulesCache.put(dir, rules);
+        }
+        return rules;
+    }
+
+    /**
+     * @return the frame to walk the directory with, null if it is skipped.
+     */
+    private Frame childFrame(Deque<Frame> stack, Path dir) {
+        if (isDenied(dir, true)) return null;
+        Frame parent = stack.peek();
+        String name = dir.getFileName().toString();
+        if (parent.forced()) return new Frame(dir, null, null);
+        if (parent.pendingKeeps() != null) return keepFrame(dir, name, parent.pendingKeeps());
+        if (isIgnoredByRules(stack, dir, true)) return keepFrame(dir, name, KEEP_PATHS);
+        return new Frame(dir, rulesOf(dir), null);
+    }
+
+    private Frame keepFrame(Path dir, String name, List<List<String>> keeps) {
+        List<List<String>> remaining = null;
+        for (List<String> keep : keeps) {
+            if (!keep.get(0).equals(name)) continue;
+            if (keep.size() == 1) return new Frame(dir, null, null);
+            if (remaining == null) remaining = new ArrayList<>();
+            remaining.add(keep.subList(1, keep.size()));
+        }
+        return remaining == null ? null : new Frame(dir, null, remaining);
+    }
+
+    private boolean isFileIgnored(Deque<Frame> stack, Path file) {
+        if (isDenied(file, false)) return true;
+        Frame parent = stack.peek();
+        if (parent.forced()) return false;
+        if (parent.pendingKeeps() != null) return true;
+        return isIgnoredByRules(stack, file, false);
+    }
+
+    private boolean isDenied(Path path, boolean directory) {
+        return Boolean.TRUE.equals(DENY_LIST.match(relativePath(projectPath, path), directory));
+    }
+
+    private boolean isIgnoredByRules(Deque<Frame> stack, Path path, boolean directory) {
+        // the stack iterates from the deepest directory to the root, the deepest matching file decides
+        for (Frame frame : stack) {
+            if (frame.rules() == null) return false;
+            if (frame.rules().isEmpty()) continue;
+            Boolean match = frame.rules().match(relativePath(frame.dir(), path), directory);
+            if (match != null) return match;
+        }
+        return false;
+    }
+
+    private static String relativePath(Path base, Path path) {
+        return base.relativize(path).toString().replace(File.separator, "/");
+    }
+}
@@ -0,0 +1,114 @@
+package de.hype;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * When each project was last used: requests to this daemon (kept in ~/.cache) and project opens recorded by IntelliJ
+ * in ~/.config/JetBrains/&lt;IDE&gt;/options/recentProjects.xml. Decides which projects are indexed first and which
+ * project wins when a class is found in several.
+ */
+class ProjectHistory {
+    private static final Path HISTORY_FILE = Paths.get(System.getProperty("user.home"), ".cache", "hype-intellij-redirector", "history.properties");
+    private static final Path JETBRAINS_CONFIG = Paths.get(System.getProperty("user.home"), ".config", "JetBrains");
+    private static final Pattern RECENT_ENTRY = Pattern.compile("<entry key=\"([^\"]+)\">(.*?)</entry>", Pattern.DOTALL);
+    private static final Pattern TIMESTAMP = Pattern.compile("name=\"(?:activationTimestamp|projectOpenTimestamp)\" value=\"(\\d+)\"");
+    // project name -> last request in epoch millis
+    private static final Map<String, Long> REQUESTS = new ConcurrentHashMap<>();
+    private static volatile Map<String, Long> intellijOpens = Map.of();
+    private static volatile boolean loaded = false;
+    private static volatile boolean dirty = false;
+
+    static void touch(String project) {
+        if (!IntelijHandler.isValidProjectName(project)) return;
+        load();
+        REQUESTS.put(project, System.currentTimeMillis());
+        dirty = true;
+    }
+
+    /**
+     * @return epoch millis of the last request or IntelliJ open of the project, 0 if it was never used.
+     */
+    static long lastUsed(String project) {
+        load();
+        return Math.max(REQUESTS.getOrDefault(project, 0L), intellijOpens.getOrDefault(project, 0L));
+    }
+
+    /**
+     * @return the project names sorted by {@link #lastUsed}, most recent first.
+     */
+    static Comparator<String> mostRecentFirst() {
+        return Comparator.comparingLong(ProjectHistory::lastUsed).reversed();
+    }
+
+    private static void load() {
+        if (loaded) return;
+        synchronized (ProjectHistory.class) {
+            if (loaded) return;
+            Properties history = new Properties();
+            try (Reader reader = Files.newBufferedReader(HISTORY_FILE)) {
+                history.load(reader);
+            } catch (NoSuchFileException ignored) {
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (String project : history.stringPropertyNames()) {
+                try {
+                    REQUESTS.merge(project, Long.parseLong(history.getProperty(project)), Math::max);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            intellijOpens = readRecentProjects();
+            loaded = true;
+        }
+    }
+
+    /**
+     * Reads the open timestamps of all IntelliJ versions, keyed by the name of the project directory.
+     */
+    private static Map<String, Long> readRecentProjects() {
+        Map<String, Long> opens = new HashMap<>();
+        if (!Files.isDirectory(JETBRAINS_CONFIG)) return opens;
+        try (DirectoryStream<Path> ides = Files.newDirectoryStream(JETBRAINS_CONFIG)) {
+            for (Path ide : ides) {
+                Path recent = ide.resolve("options").resolve("recentProjects.xml");
+                if (!Files.isRegularFile(recent)) continue;
+                Matcher entry = RECENT_ENTRY.matcher(Files.readString(recent));
+                while (entry.find()) {
+                    String project = Paths.get(entry.group(1).replace("$USER_HOME$", System.getProperty("user.home"))).getFileName().toString();
+                    Matcher timestamp = TIMESTAMP.matcher(entry.group(2));
+                    while (timestamp.find()) {
+                        opens.merge(project, Long.parseLong(timestamp.group(1)), Math::max);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+        return opens;
+    }
+
+    /**
+     * Writes the request history if it changed. Called by the {@link IndexSnapshot} writer.
+     */
+    static void saveIfChanged() {
+        if (!dirty) return;
+        dirty = false;
+        Properties history = new Properties();
+        REQUESTS.forEach((project, time) -> history.setProperty(project, String.valueOf(time)));
+        try {
+            Files.createDirectories(HISTORY_FILE.getParent());
+            try (Writer writer = Files.newBufferedWriter(HISTORY_FILE)) {
+                history.store(writer, "Last request per project");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package de.hype;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In memory index of a project's class sources (.java / .kt) by simple name and of its resources ({@link ResourceIndex}).
+ * One index per project is built on first use and then held by the daemon, so a lookup is a hash probe instead of a full walk.
+ * While the project is in use a {@link ProjectWatcher} keeps it up to date and {@link IndexSnapshot} persists it across
+ * restarts. Indexes that were restored, pre-indexed or idle are compared with the disk when they are requested again.
+ */
+class ProjectIndex implements ProjectWatcher.Listener {
+    private static final Map<Path, ProjectIndex> INDEXES = new ConcurrentHashMap<>();
+    private static final String REQUESTS_HELP = "Index requests answered by a built index, or that had to crawl the project first.";
+    private static final Metrics.Counter INDEX_HITS = Metrics.counter("hype_index_requests_total", REQUESTS_HELP, "result", "hit");
+    private static final Metrics.Counter INDEX_CRAWLS = Metrics.counter("hype_index_requests_total", REQUESTS_HELP, "result", "crawl");
+    private static final Metrics.Counter SNAPSHOT_RESTORES = Metrics.counter("hype_index_snapshots_restored_total", "Project indexes restored from a snapshot instead of crawled.");
+    private static final Metrics.Histogram CRAWL_TIME = Metrics.timer("hype_index_crawl_seconds", "Time to crawl a project for its index.");
+
+    /**
+     * Orders paths like their string form, but with the separator before every other character. Everything below a
+     * directory then directly follows the directory, without "dir-2" or "dir.bak" in between.
+     */
+    static final Comparator<Path> TREE_ORDER = (a, b) -> {
+        String x = a.toString();
+        String y = b.toString();
+        int length = Math.min(x.length(), y.length());
+        for (int i = 0; i < length; i++) {
+            char c = x.charAt(i);
+            char d = y.charAt(i);
+            if (c == d) continue;
+            if (c == File.separatorChar) return -1;
+            if (d == File.separatorChar) return 1;
+            return c - d;
+        }
+        return x.length() - y.length();
+    };
+
+    private final Path projectPath;
+    private final Map<String, Set<Path>> sourcesBySimpleName = new ConcurrentHashMap<>();
+    // the same files in TREE_ORDER, so a deleted directory is one range
+    private final NavigableSet<Path> sourceFiles = new ConcurrentSkipListSet<>(TREE_ORDER);
+    // fully qualified class name -> verified source file
+    private final Map<String, Resolved> resolvedClasses = new ConcurrentHashMap<>();
+    // mtime of every crawled directory, used to validate snapshots after a restart
+    private final NavigableMap<Path, Long> directoryMtimes = new ConcurrentSkipListMap<>(TREE_ORDER);
+    private final ResourceIndex resources;
+    private final ProjectWatcher watcher;
+    // held for the first crawl. Not a monitor: virtual threads waiting on one pin their carrier thread before JDK 24
+    private final ReentrantLock buildLock = new ReentrantLock();
+    private volatile boolean built = false;
+    private volatile boolean dirty = false;
+
+    /**
+     * @param mtime of the file when its package was verified.
+     */
+    private record Resolved(Path file, long mtime) {
+    }
+
+    private ProjectIndex(Path projectPath) {
+        this.projectPath = projectPath;
+        this.resources = new ResourceIndex(projectPath);
+        this.watcher = new ProjectWatcher(projectPath, this);
+    }
+
+    /**
+     * @param projectPath absolute and normalized project root.
+     * @return the index for the project, crawling it first if this is the first request for it. Starts watching the
+     * project if it is not watched yet.
+     */
+    static ProjectIndex get(Path projectPath) {
+        JfrEvents.ResolveProject event = new JfrEvents.ResolveProject();
+        event.begin();
+        ProjectIndex index = INDEXES.computeIfAbsent(projectPath, ProjectIndex::new);
+        boolean built = index.built;
+        if (built) {
+            INDEX_HITS.increment();
+        } else {
+            index.ensureBuilt(true);
+        }
+        index.watch();
+        if (event.shouldCommit()) {
+            event.projectPath = projectPath.toString();
+            event.crawled = !built;
+            event.commit();
+        }
+        return index;
+    }
+
+    /**
+     * Drops the index and everything derived from it, the next request for the project crawls again.
+     */
+    static void evict(Path projectPath) {
+        ProjectIndex index = INDEXES.remove(projectPath);
+        if (index != null) index.watcher.close();
+        ProjectCrawler.evict(projectPath);
+        ModuleModel.evict(projectPath);
+    }
+
+    /**
+     * Builds the index of the project without watching it, for {@link Preindexer}.
+     */
+    static void preload(Path projectPath) {
+        INDEXES.computeIfAbsent(projectPath, ProjectIndex::new).ensureBuilt(false);
+    }
+
+    static Collection<ProjectIndex> getLoadedIndexes() {
+        return INDEXES.values();
+    }
+
+    /**
+     * Registers an index restored from a snapshot. It is usable right away and validated against the disk in the background.
+     */
+    static void restore(Path projectPath, Map<Path, Long> directories, List<Path> files) {
+        ProjectIndex index = new ProjectIndex(projectPath);
+        index.directoryMtimes.putAll(directories);
+        for (Path file : files) {
+            index.addFile(file);
+        }
+        index.built = true;
+        index.dirty = false;
+        if (INDEXES.putIfAbsent(projectPath, index) != null) return;
+        SNAPSHOT_RESTORES.increment();
+        Thread thread = new Thread(index::validate, "IndexValidator-" + projectPath.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public Path getProjectPath() {
+        return projectPath;
+    }
+
+    private void ensureBuilt(boolean watch) {
+        if (built) return;
+        buildLock.lock();
+        try {
+            if (built) return;
+            long start = System.currentTimeMillis();
+            // started before the crawl so nothing changing during it is lost
+            if (watch) watcher.start();
+            long crawlStart = System.nanoTime();
+            crawl(projectPath);
+            CRAWL_TIME.recordSince(crawlStart);
+            INDEX_CRAWLS.increment();
+            built = true;
+            dirty = true;
+            System.out.println("Indexed %s in %dms (%d class names, %d resources)".formatted(projectPath, System.currentTimeMillis() - start, sourcesBySimpleName.size(), resources.getIndexedFiles().size()));
+        } finally {
+            buildLock.unlock();
+        }
+    }
+
+    private void crawl(Path root) {
+        ProjectCrawler.forProject(projectPath).crawl(root, Integer.MAX_VALUE, new ProjectCrawler.Visitor() {
+            @Override
+            public void directory(Path dir, BasicFileAttributes attrs) {
+                watcher.register(dir);
+                directoryMtimes.put(dir, attrs.lastModifiedTime().toMillis());
+            }
+
+            @Override
+            public void file(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) addFile(file);
+            }
+        });
+    }
+
+    /**
+     * Starts the watcher if it is not running. The index was built or last updated without it, so it is validated
+     * against the disk in the background meanwhile.
+     */
+    private void watch() {
+        if (!watcher.start()) return;
+        Thread thread = new Thread(this::validate, "IndexValidator-" + projectPath.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Compares the directory mtimes of a restored snapshot with the disk and only rescans directories that changed
+     * while the daemon was not running or the project was not watched. Registers every directory with the watcher if
+     * it is running.
+     */
+    private void validate() {
+        long start = System.currentTimeMillis();
+        Map<Path, List<Path>> filesByDirectory = new HashMap<>();
+        for (Path file : getIndexedFiles()) {
+            filesByDirectory.computeIfAbsent(file.getParent(), k -> new ArrayList<>()).add(file);
+        }
+        int changed = 0;
+        for (Map.Entry<Path, Long> entry : new ArrayList<>(directoryMtimes.entrySet())) {
+            Path dir = entry.getKey();
+            if (!directoryMtimes.containsKey(dir)) continue; // removed together with a deleted parent
+            long mtime;
+            try {
+                mtime = Files.getLastModifiedTime(dir, LinkOption.NOFOLLOW_LINKS).toMillis();
+            } catch (IOException e) {
+                pathDeleted(dir);
+                changed++;
+                continue;
+            }
+            watcher.register(dir);
+            if (mtime == entry.getValue()) continue;
+            changed++;
+            directoryMtimes.put(dir, mtime);
+            for (Path file : filesByDirectory.getOrDefault(dir, Collections.emptyList())) {
+                if (!Files.exists(file)) pathDeleted(file);
+            }
+            ProjectCrawler crawler = ProjectCrawler.forProject(projectPath);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path child : stream) {
+                    boolean directory = Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS);
+                    if (crawler.isIgnored(child, directory)) continue;
+                    if (directory) {
+                        if (!directoryMtimes.containsKey(child)) crawl(child);
+                    } else {
+                        addFile(child);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (changed > 0) dirty = true;
+        System.out.println("Validated index snapshot of %s in %dms (%d changed directories)".formatted(projectPath, System.currentTimeMillis() - start, changed));
+    }
+
+    static boolean isSourceFile(String fileName) {
+        return fileName.endsWith(".java") || fileName.endsWith(".kt");
+    }
+
+    static String simpleNameOf(String fileName) {
+        return fileName.substring(0, fileName.lastIndexOf('.'));
+    }
+
+    /**
+     * Removes the path and everything below it from a set in {@link #TREE_ORDER}. Only touches the removed entries.
+     *
+     * @return the removed paths.
+     */
+    static List<Path> removeTree(NavigableSet<Path> paths, Path path) {
+        List<Path> removed = new ArrayList<>();
+        Iterator<Path> iterator = paths.tailSet(path, true).iterator();
+        while (iterator.hasNext()) {
+            Path next = iterator.next();
+            if (!next.startsWith(path)) break;
+            iterator.remove();
+            removed.add(next);
+        }
+        return removed;
+    }
+
+    void addFile(Path file) {
+        if (resources.add(file)) dirty = true;
+        String fileName = file.getFileName().toString();
+        if (!isSourceFile(fileName)) return;
+        sourceFiles.add(file);
+        // added under the key's lock, so a concurrent removal of the last file can not drop the set in between
+        sourcesBySimpleName.compute(simpleNameOf(fileName), (name, files) -> {
+            if (files == null) files = ConcurrentHashMap.newKeySet();
+            if (files.add(file)) dirty = true;
+            return files;
+        });
+    }
+
+    /**
+     * Resolved classes are not touched, {@link #getResolved} notices changed and deleted files by their mtime.
+     */
+    @Override
+    public void fileChanged(Path file) {
+        addFile(file);
+        updateDirectoryMtime(file.getParent());
+    }
+
+    @Override
+    public void pathDeleted(Path path) {
+        for (Path file : removeTree(sourceFiles, path)) {
+            sourcesBySimpleName.computeIfPresent(simpleNameOf(file.getFileName().toString()), (name, files) -> {
+                files.remove(file);
+                return files.isEmpty() ? null : files;
+            });
+        }
+        resources.removeTree(path);
+        removeTree(directoryMtimes.navigableKeySet(), path);
+        updateDirectoryMtime(path.getParent());
+        dirty = true;
+    }
+
+    private void updateDirectoryMtime(Path dir) {
+        if (dir == null || !dir.startsWith(projectPath)) return;
+        try {
+            directoryMtimes.put(dir, Files.getLastModifiedTime(dir, LinkOption.NOFOLLOW_LINKS).toMillis());
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * @return all indexed source files whose file name (without extension) equals the simple name. Package is not verified.
+     */
+    List<Path> getCandidates(String simpleName) {
+        Set<Path> files = sourcesBySimpleName.get(simpleName);
+        if (files == null) return Collections.emptyList();
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * @return the file the class was last found in, null if it was not resolved yet or the file was modified or
+     * deleted since. The mtime check also catches changes the watcher does not report, the directory poller only
+     * sees files being added and removed.
+     */
+    Path getResolved(String className) {
+        Resolved resolved = resolvedClasses.get(className);
+        if (resolved == null) return null;
+        try {
+            if (Files.getLastModifiedTime(resolved.file()).toMillis() == resolved.mtime()) return resolved.file();
+        } catch (IOException ignored) {
+        }
+        // the package may have changed, so the class has to be verified again
+        resolvedClasses.remove(className, resolved);
+        return null;
+    }
+
+    void putResolved(String className, Path file) {
+        try {
+            resolvedClasses.put(className, new Resolved(file, Files.getLastModifiedTime(file).toMillis()));
+        } catch (IOException ignored) {
+        }
+    }
+
+    boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * @return true once if anything changed since the last call. Used by the snapshot writer.
+     */
+    boolean consumeDirty() {
+        if (!dirty) return false;
+        dirty = false;
+        return true;
+    }
+
+    ResourceIndex getResources() {
+        return resources;
+    }
+
+    /**
+     * @return every file any of the indexes knows about.
+     */
+    List<Path> getIndexedFiles() {
+        Set<Path> files = resources.getIndexedFiles();
+        files.addAll(sourceFiles);
+        return new ArrayList<>(files);
+    }
+
+    Map<Path, Long> getDirectoryMtimes() {
+        return new HashMap<>(directoryMtimes);
+    }
+}
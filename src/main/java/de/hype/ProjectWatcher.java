@@ -0,0 +1,321 @@
+package de.hype;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Keeps the cached file sets of a project up to date by watching every directory of it with a {@link WatchService}.
+ * Events are debounced and coalesced per path, so a branch checkout touching thousands of files results in one flush.
+ * If the inotify watch limit is reached the watcher switches to polling directory mtimes instead of giving up.
+ * <p>
+ * All projects share one watch service (one inotify instance, the default limit is 128 per user) and one thread.
+ * A watcher only runs between {@link #start()} and {@link #close()}; it closes itself once its project was not used
+ * for {@code -Dhype.watch.idleMinutes} (default 30), so pre-indexed and long unused projects cost no watches and
+ * no polling.
+ */
+class ProjectWatcher {
+    private static final long DEBOUNCE_MS = 250;
+    private static final long MAX_DELAY_MS = 2000;
+    private static final long POLL_INTERVAL_MS = 3000;
+    private static final long IDLE_MS = TimeUnit.MINUTES.toMillis(Long.getLong("hype.watch.idleMinutes", 30));
+    private static final Map<WatchKey, Registration> WATCH_KEYS = new ConcurrentHashMap<>();
+    private static final Set<ProjectWatcher> RUNNING = ConcurrentHashMap.newKeySet();
+    private static volatile WatchService watchService;
+    private static Thread thread;
+
+    interface Listener {
+        /**
+         * A regular file was created or modified.
+         */
+        void fileChanged(Path file);
+
+        /**
+         * A file or a whole directory was deleted. Everything at or below the path is gone.
+         */
+        void pathDeleted(Path path);
+    }
+
+    private record Registration(ProjectWatcher watcher, Path dir) {
+    }
+
+    private final Path projectPath;
+    private final Listener listener;
+    private final ProjectCrawler crawler;
+    private final Set<WatchKey> watchKeys = ConcurrentHashMap.newKeySet();
+    // only touched by the watcher thread
+    private final Set<Path> pending = new LinkedHashSet<>();
+    private final Set<Path> overflowed = new LinkedHashSet<>();
+    private volatile DirectoryPoller poller;
+    private volatile boolean running = false;
+    private volatile long lastUsed;
+
+    ProjectWatcher(Path projectPath, Listener listener) {
+        this.projectPath = projectPath;
+        this.listener = listener;
+        this.crawler = ProjectCrawler.forProject(projectPath);
+    }
+
+    /**
+     * Starts watching a single directory. Called for every directory while the owner crawls the project, so no
+     * separate walk is needed to set up the watches. Directories skipped by the {@link ProjectCrawler} must not be
+     * passed in. Does nothing while the watcher is not running.
+     */
+    void register(Path dir) {
+        if (!running) return;
+        DirectoryPoller currentPoller = poller;
+        if (currentPoller != null) {
+            currentPoller.add(dir);
+            return;
+        }
+        WatchService service = watchService;
+        if (service == null) {
+            switchToPolling("no watch service available");
+            poller.add(dir);
+            return;
+        }
+        try {
+            WatchKey key = dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            WATCH_KEYS.put(key, new Registration(this, dir));
+            watchKeys.add(key);
+            if (!running) cancel(key); // closed meanwhile
+        } catch (IOException e) {
+            // "User limit of inotify watches reached" on linux
+            switchToPolling(e.getMessage());
+            poller.add(dir);
+        }
+    }
+
+    /**
+     * Also marks the project as used, so the watcher is not closed as idle.
+     *
+     * @return false if the watcher was running already. Directories have to be registered (again) after a start.
+     */
+    synchronized boolean start() {
+        lastUsed = System.currentTimeMillis();
+        if (running) return false;
+        running = true;
+        RUNNING.add(this);
+        startThread();
+        return true;
+    }
+
+    /**
+     * Stops watching, {@link #start()} can be called again later.
+     */
+    synchronized void close() {
+        running = false;
+        RUNNING.remove(this);
+        for (WatchKey key : watchKeys) {
+            cancel(key);
+        }
+        poller = null;
+    }
+
+    private void cancel(WatchKey key) {
+        key.cancel();
+        WATCH_KEYS.remove(key);
+        watchKeys.remove(key);
+    }
+
+    private static synchronized void startThread() {
+        if (thread != null) return;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        thread = new Thread(ProjectWatcher::run, "ProjectWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private synchronized void switchToPolling(String reason) {
+        if (poller != null) return;
+        System.err.println("Falling back to polling for %s: %s".formatted(projectPath, reason));
+        DirectoryPoller newPoller = new DirectoryPoller();
+        for (WatchKey key : watchKeys) {
+            Registration registration = WATCH_KEYS.get(key);
+            if (registration != null) newPoller.add(registration.dir());
+            cancel(key);
+        }
+        poller = newPoller;
+    }
+
+    private static void run() {
+        long nextPoll = System.currentTimeMillis() + POLL_INTERVAL_MS;
+        while (true) {
+            try {
+                long now = System.currentTimeMillis();
+                if (now >= nextPoll) {
+                    nextPoll = now + POLL_INTERVAL_MS;
+                    pollAndCloseIdle(now);
+                }
+                WatchKey key = watchService == null ? null : watchService.poll(Math.max(1, nextPoll - now), TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    if (watchService == null) Thread.sleep(Math.max(1, nextPoll - now));
+                    continue;
+                }
+                long firstEvent = System.currentTimeMillis();
+                // debounce: keep collecting until it has been quiet for a moment or the storm lasted too long
+                Set<ProjectWatcher> changed = new HashSet<>();
+                while (key != null) {
+                    collect(key, changed);
+                    if (System.currentTimeMillis() - firstEvent > MAX_DELAY_MS) break;
+                    key = watchService.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+                }
+                for (ProjectWatcher watcher : changed) {
+                    watcher.flush();
+                }
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void pollAndCloseIdle(long now) {
+        for (ProjectWatcher watcher : RUNNING) {
+            if (now - watcher.lastUsed > IDLE_MS) {
+                System.out.println("Stopped watching %s, not used for %d minutes".formatted(watcher.projectPath, TimeUnit.MILLISECONDS.toMinutes(IDLE_MS)));
+                watcher.close();
+                continue;
+            }
+            DirectoryPoller currentPoller = watcher.poller;
+            if (currentPoller != null) currentPoller.poll();
+        }
+    }
+
+    private static void collect(WatchKey key, Set<ProjectWatcher> changed) {
+        Registration registration = WATCH_KEYS.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (registration == null || !registration.watcher().running) continue;
+            ProjectWatcher watcher = registration.watcher();
+            if (event.kind() == OVERFLOW) {
+                watcher.overflowed.add(registration.dir());
+            } else {
+                watcher.pending.add(registration.dir().resolve((Path) event.context()));
+            }
+            changed.add(watcher);
+        }
+        if (!key.reset() && registration != null) {
+            registration.watcher().cancel(key);
+        }
+    }
+
+    private void flush() {
+        // The current state on disk decides what happened, so create+delete or delete+create pairs coalesce for free.
+        for (Path dir : overflowed) {
+            listener.pathDeleted(dir);
+            addTree(dir);
+        }
+        for (Path path : pending) {
+            if (overflowed.stream().anyMatch(path::startsWith)) continue;
+            applyChange(path);
+        }
+        overflowed.clear();
+        pending.clear();
+    }
+
+    private void applyChange(Path path) {
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            if (!crawler.isIgnored(path, true)) addTree(path);
+        } else if (Files.isRegularFile(path)) {
+            if (ProjectCrawler.isIgnoreFile(path)) crawler.invalidate(path.getParent());
+            if (!crawler.isIgnored(path, false)) listener.fileChanged(path);
+        } else {
+            listener.pathDeleted(path);
+        }
+    }
+
+    private void addTree(Path dir) {
+        crawler.crawl(dir, Integer.MAX_VALUE, new ProjectCrawler.Visitor() {
+            @Override
+            public void directory(Path subDir, BasicFileAttributes attrs) {
+                register(subDir);
+            }
+
+            @Override
+            public void file(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) listener.fileChanged(file);
+            }
+        });
+    }
+
+    /**
+     * Fallback for when no more inotify watches are available. Remembers the mtime and the entries of every directory
+     * and diffs a directory's entries whenever its mtime changes. Files are never stat'ed, only directories.
+     */
+    private class DirectoryPoller {
+        private final Map<Path, Long> mtimes = new ConcurrentHashMap<>();
+        private final Map<Path, Set<String>> entries = new ConcurrentHashMap<>();
+
+        void add(Path dir) {
+            try {
+                mtimes.put(dir, Files.getLastModifiedTime(dir).toMillis());
+                entries.put(dir, listEntries(dir));
+            } catch (IOException e) {
+                mtimes.remove(dir);
+                entries.remove(dir);
+            }
+        }
+
+        void poll() {
+            for (Path dir : new ArrayList<>(mtimes.keySet())) {
+                Long known = mtimes.get(dir);
+                if (known == null) continue; // removed as part of a deleted parent
+                long mtime;
+                try {
+                    mtime = Files.getLastModifiedTime(dir).toMillis();
+                } catch (IOException e) {
+                    removeTree(dir);
+                    listener.pathDeleted(dir);
+                    continue;
+                }
+                if (mtime == known) continue;
+                mtimes.put(dir, mtime);
+                Set<String> before = entries.getOrDefault(dir, Collections.emptySet());
+                Set<String> after;
+                try {
+                    after = listEntries(dir);
+                } catch (IOException e) {
+                    continue;
+                }
+                entries.put(dir, after);
+                for (String name : before) {
+                    if (!after.contains(name)) {
+                        Path removed = dir.resolve(name);
+                        removeTree(removed);
+                        listener.pathDeleted(removed);
+                    }
+                }
+                for (String name : after) {
+                    if (!before.contains(name)) {
+                        applyChange(dir.resolve(name));
+                    }
+                }
+            }
+        }
+
+        private void removeTree(Path dir) {
+            mtimes.keySet().removeIf(path -> path.startsWith(dir));
+            entries.keySet().removeIf(path -> path.startsWith(dir));
+        }
+
+        private Set<String> listEntries(Path dir) throws IOException {
+            Set<String> names = new HashSet<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path entry : stream) {
+                    names.add(entry.getFileName().toString());
+                }
+            }
+            return names;
+        }
+    }
+}
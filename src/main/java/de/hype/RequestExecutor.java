@@ -0,0 +1,111 @@
+package de.hype;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads the requests run on.
+ * <p>
+ * The HTTP server gets its own executor, so a slow crawl of one project does not hold up requests for other projects.
+ * {@code -Dhype.executor} picks it: "virtual" (JDK 21+), "pool" (fixed pool of {@code -Dhype.executor.threads}) or
+ * "auto" (virtual threads if the JDK has them). At most {@code -Dhype.executor.perProject} lookups run for the same
+ * project at once. Batch lookups ({@code /resolve}) have their own {@code -Dhype.executor.batchPerProject} permits, so
+ * a large batch never queues ahead of a click. Window operations can not run in parallel at all and go through a single queue thread, so no
+ * request thread waits for IntelliJ.
+ */
+class RequestExecutor {
+    private static final String MODE = System.getProperty("hype.executor", "auto");
+    private static final int POOL_THREADS = Integer.getInteger("hype.executor.threads", Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    private static final int PER_PROJECT = Integer.getInteger("hype.executor.perProject", 2);
+    private static final int LOOKUP_THREADS = Integer.getInteger("hype.executor.lookupThreads", Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private static final int BATCH_PER_PROJECT = Integer.getInteger("hype.executor.batchPerProject", 2);
+    private static final Map<String, Semaphore> PROJECT_PERMITS = new ConcurrentHashMap<>();
+    private static final Map<String, Semaphore> BATCH_PERMITS = new ConcurrentHashMap<>();
+    private static final ExecutorService WINDOW_QUEUE = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "WindowQueue");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static ExecutorService lookupExecutor;
+
+    interface Work<V, E extends Exception> {
+        V run() throws E;
+    }
+
+    static ExecutorService create() {
+        if (!MODE.equals("pool")) {
+            try {
+                ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                System.out.println("Handling requests on virtual threads");
+                return executor;
+            } catch (ReflectiveOperationException e) {
+                if (MODE.equals("virtual")) System.err.println("Virtual threads need JDK 21, using a thread pool instead");
+            }
+        }
+        System.out.println("Handling requests on a pool of %d threads".formatted(POOL_THREADS));
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(POOL_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "Request-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs a lookup for the project, blocks first while the project already has the maximum number of lookups running.
+     */
+    static <V, E extends Exception> V withProjectPermit(String project, Work<V, E> work) throws E {
+        return withPermit(PROJECT_PERMITS, PER_PROJECT, project, work);
+    }
+
+    /**
+     * Like {@link #withProjectPermit}, but from the separate permits of batch lookups.
+     */
+    static <V, E extends Exception> V withBatchPermit(String project, Work<V, E> work) throws E {
+        return withPermit(BATCH_PERMITS, BATCH_PER_PROJECT, project, work);
+    }
+
+    private static <V, E extends Exception> V withPermit(Map<String, Semaphore> permits, int count, String project, Work<V, E> work) throws E {
+        Semaphore semaphore = permits.computeIfAbsent(Objects.requireNonNull(project, "project"), k -> new Semaphore(count, true));
+        semaphore.acquireUninterruptibly();
+        try {
+            return work.run();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Threads for the single lookups of a batch request. Separate from the request threads, which wait for them.
+     */
+    static synchronized ExecutorService lookups() {
+        if (lookupExecutor == null) {
+            AtomicInteger count = new AtomicInteger();
+            lookupExecutor = Executors.newFixedThreadPool(LOOKUP_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "Lookup-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return lookupExecutor;
+    }
+
+    /**
+     * Queues a window operation behind all others and returns right away.
+     */
+    static void submitWindowTask(Runnable task) {
+        WINDOW_QUEUE.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+}
@@ -0,0 +1,219 @@
+package de.hype;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Resolves many classes and resources in one POST without opening anything, for tools that only want to know which
+ * references will resolve. The body has one query per line, in the syntax of /open and /openResource:
+ * <pre>
+ * project=BBsentials-Server&amp;class=de.hype.bbsentials.server.discord.events.staticimplementations.commands.commands.commandgroups.bingoeventcommandgroup.Top100
+ * project=BBsentials-Server&amp;path=/templates/**&#47;example.html
+ * project=BBsentials-Server&amp;regex=.*\.html&amp;focustestresource
+ * </pre>
+ * The queries are looked up in parallel and the results streamed back as one JSON object per line, in the order they
+ * finish; "index" is the line of the query:
+ * <pre>
+ * {"index":0,"project":"BBsentials-Server","kind":"class","query":"...Top100","status":"found","matches":[{"project":"BBsentials-Server","path":"src/main/java/.../Top100.java","type":"SOURCE","url":"jetbrains://idea/navigate/reference?project=...&amp;path=..."}]}
+ * </pre>
+ * Status is found, ambiguous (several matches), not_found, invalid or error. The first query of a project crawls it if
+ * needed, the other queries of that project wait for the same crawl. Classes the index does not know are reported as
+ * not_found right away instead of walking the project like /open does. A class query without project is looked up in
+ * every indexed project, most recently used first.
+ */
+class ResolveHandler implements HttpHandler {
+    private static final int MAX_QUERIES = 10_000;
+    private static final int MAX_BODY_BYTES = 4 * 1024 * 1024;
+    private final OpenResourceHandler resources = new OpenResourceHandler();
+
+    private record Query(int index, String project, String kind, String value, boolean focusTestResource) {
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String remoteAddress = exchange.getRemoteAddress().getAddress().getHostAddress();
+        if (!"127.0.0.1".equals(remoteAddress) && !"::1".equals(remoteAddress)) {
+            sendError(exchange, 403, "Access denied");
+            return;
+        }
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            sendError(exchange, 405, "POST one query per line");
+            return;
+        }
+        byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+        if (body.length > MAX_BODY_BYTES) {
+            sendError(exchange, 413, "At most %d bytes per request".formatted(MAX_BODY_BYTES));
+            return;
+        }
+        List<Query> queries = new ArrayList<>();
+        int index = 0;
+        for (String line : new String(body, StandardCharsets.UTF_8).split("\\R")) {
+            if (line.isBlank()) continue;
+            queries.add(parse(index++, line.trim()));
+        }
+        if (queries.size() > MAX_QUERIES) {
+            sendError(exchange, 413, "At most %d queries per request".formatted(MAX_QUERIES));
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream os = exchange.getResponseBody();
+        List<CompletableFuture<Void>> lookups = new ArrayList<>(queries.size());
+        for (Query query : queries) {
+            lookups.add(CompletableFuture.supplyAsync(() -> resolve(query), RequestExecutor.lookups())
+                    .thenAccept(result -> write(os, result)));
+        }
+        CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+        os.close();
+    }
+
+    private static Query parse(int index, String line) {
+        String project = null;
+        String kind = null;
+        String value = null;
+        boolean focusTestResource = false;
+        for (String param : line.split("&")) {
+            if (param.startsWith("project=")) {
+                project = decode(param.substring(8));
+            } else if (param.startsWith("class=")) {
+                kind = "class";
+                value = decode(param.substring(6)).split("\\$")[0];
+            } else if (param.startsWith("path=")) {
+                kind = "path";
+                value = decode(param.substring(5));
+            } else if (param.startsWith("regex=")) {
+                kind = "regex";
+                value = decode(param.substring(6));
+            } else if (param.equals("focustestresource")) {
+                focusTestResource = true;
+            }
+        }
+        return new Query(index, project, kind, value, focusTestResource);
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return value;
+        }
+    }
+
+    private String resolve(Query query) {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"index\":").append(query.index())
+                .append(",\"project\":").append(quote(query.project()))
+                .append(",\"kind\":").append(quote(query.kind()))
+                .append(",\"query\":").append(quote(query.value()));
+        boolean anyProject = query.project() == null && "class".equals(query.kind());
+        if (query.kind() == null || (!anyProject && !IntelijHandler.isValidProjectName(query.project()))) {
+            return json.append(",\"status\":\"invalid\",\"matches\":[]}").toString();
+        }
+        if (!anyProject && !Main.projectExists(query.project())) {
+            return json.append(",\"status\":\"not_found\",\"matches\":[]}").toString();
+        }
+        try {
+            // searching every project only reads the loaded indexes, there is no project to limit
+            List<String[]> matches = anyProject
+                    ? findMatches(query, true)
+                    : RequestExecutor.withBatchPermit(query.project(), () -> findMatches(query, false));
+            String status = matches.isEmpty() ? "not_found" : matches.size() == 1 ? "found" : "ambiguous";
+            json.append(",\"status\":\"").append(status).append("\",\"matches\":[");
+            for (int i = 0; i < matches.size(); i++) {
+                String[] match = matches.get(i);
+                if (i > 0) json.append(',');
+                json.append("{\"project\":").append(quote(match[0]))
+                        .append(",\"path\":").append(quote(match[1]))
+                        .append(",\"type\":").append(quote(match[2]))
+                        .append(",\"url\":").append(quote("jetbrains://idea/navigate/reference?project=" + match[0] + "&path=" + match[1]))
+                        .append('}');
+            }
+            return json.append("]}").toString();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return json.append(",\"status\":\"error\",\"message\":").append(quote(String.valueOf(e.getMessage()))).append(",\"matches\":[]}").toString();
+        }
+    }
+
+    private List<String[]> findMatches(Query query, boolean anyProject) throws IOException {
+        // project, path, type
+        List<String[]> matches = new ArrayList<>();
+        String projectPath = Main.projectPath(query.project());
+        if (anyProject) {
+            for (OpenHandler.Location location : OpenHandler.searchAllProjects(query.value())) {
+                matches.add(new String[]{location.project(), location.path(), "SOURCE"});
+            }
+        } else if (query.kind().equals("class")) {
+            String path = OpenHandler.searchClassFile(query.value(), Paths.get(projectPath), false);
+            if (path != null) matches.add(new String[]{query.project(), path, "SOURCE"});
+        } else {
+            Set<OpenResourceHandler.ResourceMatch> found = query.kind().equals("regex")
+                    ? resources.findResourcesByRegex(query.value(), Paths.get(projectPath), query.focusTestResource())
+                    : resources.findResourcesByPath(query.value(), Paths.get(projectPath), query.focusTestResource());
+            for (OpenResourceHandler.ResourceMatch match : found) {
+                matches.add(new String[]{query.project(), match.getRelativePath(), match.getType().name()});
+            }
+            matches.sort(Comparator.comparing(match -> match[1]));
+        }
+        return matches;
+    }
+
+    private static void write(OutputStream os, String result) {
+        byte[] line = (result + "\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (os) {
+            try {
+                os.write(line);
+                os.flush();
+            } catch (IOException e) {
+                // the client went away, the remaining lookups still finish and warm the index
+            }
+        }
+    }
+
+    /**
+     * @return the string as a JSON string literal, null as null.
+     */
+    static String quote(String value) {
+        if (value == null) return "null";
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append("\\u%04x".formatted((int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private static void sendError(HttpExchange exchange, int code, String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
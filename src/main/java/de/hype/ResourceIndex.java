@@ -0,0 +1,280 @@
+package de.hype;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * The resource files of a project, grouped by the resource root they are in and already classified as
+ * {@link ResourceType}. Filled from the same crawl as the {@link ProjectIndex} that owns it.
+ * <p>
+ * A resource root is either one of the well known module relative directories (src/main/resources, target/test-classes,
+ * ...), which only counts if its module turns out to be a module root, or any directory named like a resource
+ * directory within the first levels of the project.
+ * <p>
+ * Path lookups go through a trie of the reversed root relative path segments, so finding every file whose path ends
+ * with "templates/mail/welcome.html" costs three hash lookups no matter how many files there are. The first level of
+ * the trie is a plain file name to files map.
+ * <p>
+ * Roots and files are returned sorted by path, so the order of matches does not depend on crawl or hash order.
+ */
+class ResourceIndex {
+    private static final int NAMED_ROOT_MAX_DEPTH = 4;
+    private static final int BUILD_FILE_MAX_DEPTH = 3;
+    private static final Map<List<String>, ResourceType> MODULE_RESOURCE_DIRECTORIES = new LinkedHashMap<>();
+
+    static {
+        // Main resources - standard patterns across build systems
+        putModuleDirectory("src/main/resources", ResourceType.MAIN_RESOURCE);
+        putModuleDirectory("src/resources", ResourceType.MAIN_RESOURCE);
+        putModuleDirectory("resources", ResourceType.MAIN_RESOURCE);
+        putModuleDirectory("WebContent/WEB-INF/classes", ResourceType.MAIN_RESOURCE);
+        putModuleDirectory("web/WEB-INF/classes", ResourceType.MAIN_RESOURCE);
+
+        // Generated resources only (not built copies of source resources)
+        putModuleDirectory("build/generated/resources", ResourceType.GENERATED_RESOURCE);
+        putModuleDirectory("out/production/generated-resources", ResourceType.GENERATED_RESOURCE);
+        putModuleDirectory("target/generated-resources", ResourceType.GENERATED_RESOURCE);
+
+        // Test resources
+        putModuleDirectory("src/test/resources", ResourceType.TEST_RESOURCE);
+        putModuleDirectory("test/resources", ResourceType.TEST_RESOURCE);
+        putModuleDirectory("build/generated/resources/test", ResourceType.TEST_RESOURCE);
+        putModuleDirectory("out/test/resources", ResourceType.TEST_RESOURCE);
+        putModuleDirectory("target/test-classes", ResourceType.TEST_RESOURCE);
+    }
+
+    private static void putModuleDirectory(String path, ResourceType type) {
+        MODULE_RESOURCE_DIRECTORIES.put(List.of(path.split("/")), type);
+    }
+
+    /**
+     * @param moduleRoot the module the directory belongs to, null for directories found by name which always count.
+     */
+    record Root(Path dir, ResourceType type, Path moduleRoot) {
+        private static final Comparator<Root> ORDER = Comparator.comparing(Root::dir)
+                .thenComparing(Root::moduleRoot, Comparator.nullsFirst(Comparator.naturalOrder()));
+    }
+
+    record Entry(Root root, Path file) {
+    }
+
+    /**
+     * Nodes are only created and pruned inside compute calls on their parent's children map, which lock the key. An
+     * entry is added to every node on its way down, so a node with no entries has an empty subtree and can be pruned.
+     */
+    private static class SuffixNode {
+        private final Map<String, SuffixNode> children = new ConcurrentHashMap<>();
+        // every entry whose relative path ends with the segments leading to this node
+        private final Set<Entry> entries = ConcurrentHashMap.newKeySet();
+    }
+
+    private final Path projectPath;
+    private final SuffixNode suffixTrie = new SuffixNode();
+    // every resource root that contains the directory, memoized per directory
+    private final NavigableMap<Path, List<Root>> rootsByDirectory = new ConcurrentSkipListMap<>(ProjectIndex.TREE_ORDER);
+    // files in TREE_ORDER, so a deleted directory is one range
+    private final Map<Root, NavigableSet<Path>> filesByRoot = new ConcurrentHashMap<>();
+    private final NavigableSet<Path> buildFiles = new ConcurrentSkipListSet<>(ProjectIndex.TREE_ORDER);
+
+    ResourceIndex(Path projectPath) {
+        this.projectPath = projectPath;
+    }
+
+    static boolean isBuildFile(String fileName) {
+        return fileName.equals("build.gradle") || fileName.equals("build.gradle.kts")
+                || fileName.equals("pom.xml") || fileName.endsWith(".iml");
+    }
+
+    /**
+     * @return true if the file is a resource or a build file and was not known yet.
+     */
+    boolean add(Path file) {
+        boolean added = false;
+        if (isBuildFile(file.getFileName().toString()) && projectPath.relativize(file).getNameCount() <= BUILD_FILE_MAX_DEPTH) {
+            added = buildFiles.add(file);
+        }
+        boolean[] addedToRoot = new boolean[1];
+        for (Root root : rootsOf(file.getParent())) {
+            addedToRoot[0] = false;
+            // added under the key's lock, so removeTree can not drop the root's set in between
+            filesByRoot.compute(root, (key, files) -> {
+                if (files == null) files = new ConcurrentSkipListSet<>(ProjectIndex.TREE_ORDER);
+                addedToRoot[0] = files.add(file);
+                return files;
+            });
+            if (addedToRoot[0]) {
+                Entry entry = new Entry(root, file);
+                SuffixNode node = suffixTrie;
+                Path relative = root.dir().relativize(file);
+                for (int i = relative.getNameCount() - 1; i >= 0; i--) {
+                    node = node.children.compute(relative.getName(i).toString(), (segment, child) -> {
+                        if (child == null) child = new SuffixNode();
+                        child.entries.add(entry);
+                        return child;
+                    });
+                }
+                added = true;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Costs the number of roots plus the number of removed files, not the size of the index.
+     */
+    void removeTree(Path path) {
+        for (Root root : filesByRoot.keySet()) {
+            // only roots inside the path or containing it can have files below it
+            if (!root.dir().startsWith(path) && !path.startsWith(root.dir())) continue;
+            filesByRoot.computeIfPresent(root, (key, files) -> {
+                for (Path file : ProjectIndex.removeTree(files, path)) {
+                    removeFromTrie(root, file);
+                }
+                return files.isEmpty() ? null : files;
+            });
+        }
+        ProjectIndex.removeTree(rootsByDirectory.navigableKeySet(), path);
+        ProjectIndex.removeTree(buildFiles, path);
+    }
+
+    /**
+     * @return the directories containing a build file within the first levels of the project, like a depth limited walk would find them.
+     */
+    Set<Path> getBuildFileDirectories() {
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Path buildFile : buildFiles) {
+            directories.add(buildFile.getParent());
+        }
+        return directories;
+    }
+
+    /**
+     * @return the resource roots containing files, by type and sorted by path. Module relative roots only count if their
+     * module is in moduleRoots.
+     */
+    Map<ResourceType, List<Root>> getRoots(Set<Path> moduleRoots) {
+        Map<ResourceType, List<Root>> roots = new EnumMap<>(ResourceType.class);
+        for (ResourceType type : ResourceType.values()) {
+            roots.put(type, new ArrayList<>());
+        }
+        // a directory can be a root both by name and relative to its module, only search it once per type
+        Set<List<Object>> seen = new HashSet<>();
+        List<Root> sorted = new ArrayList<>(filesByRoot.keySet());
+        sorted.sort(Root.ORDER);
+        for (Root root : sorted) {
+            if (root.moduleRoot() == null || moduleRoots.contains(root.moduleRoot())) {
+                if (seen.add(List.of(root.dir(), root.type()))) roots.get(root.type()).add(root);
+            }
+        }
+        return roots;
+    }
+
+    private void removeFromTrie(Root root, Path file) {
+        Entry entry = new Entry(root, file);
+        Path relative = root.dir().relativize(file);
+        SuffixNode node = suffixTrie;
+        SuffixNode[] next = new SuffixNode[1];
+        for (int i = relative.getNameCount() - 1; i >= 0; i--) {
+            next[0] = null;
+            node.children.computeIfPresent(relative.getName(i).toString(), (segment, child) -> {
+                child.entries.remove(entry);
+                if (child.entries.isEmpty()) return null;
+                next[0] = child;
+                return child;
+            });
+            // missing or pruned together with everything below it
+            if (next[0] == null) return;
+            node = next[0];
+        }
+    }
+
+    /**
+     * @param path '/' separated path like "templates/mail/welcome.html" or just a file name.
+     * @return the files whose path relative to their resource root ends with all segments of the path, by root.
+     */
+    Map<Root, List<Path>> findByPathSuffix(String path) {
+        String[] segments = path.split("/");
+        SuffixNode node = suffixTrie;
+        for (int i = segments.length - 1; i >= 0 && node != null; i--) {
+            if (segments[i].isEmpty() || segments[i].equals(".")) continue;
+            node = node.children.get(segments[i]);
+        }
+        if (node == null || node == suffixTrie) return Collections.emptyMap();
+        Map<Root, List<Path>> matches = new HashMap<>();
+        for (Entry entry : node.entries) {
+            matches.computeIfAbsent(entry.root(), k -> new ArrayList<>()).add(entry.file());
+        }
+        matches.values().forEach(Collections::sort);
+        return matches;
+    }
+
+    Set<Path> getFiles(Root root) {
+        return filesByRoot.getOrDefault(root, Collections.emptyNavigableSet());
+    }
+
+    Set<Path> getIndexedFiles() {
+        Set<Path> files = new HashSet<>(buildFiles);
+        for (Set<Path> rootFiles : filesByRoot.values()) {
+            files.addAll(rootFiles);
+        }
+        return files;
+    }
+
+    private List<Root> rootsOf(Path dir) {
+        if (dir == null || !dir.startsWith(projectPath) || dir.equals(projectPath)) return Collections.emptyList();
+        List<Root> roots = rootsByDirectory.get(dir);
+        if (roots != null) return roots;
+        List<Root> parentRoots = rootsOf(dir.getParent());
+        List<Root> ownRoots = rootsDefinedBy(dir);
+        if (ownRoots.isEmpty()) {
+            roots = parentRoots;
+        } else {
+            roots = new ArrayList<>(parentRoots);
+            roots.addAll(ownRoots);
+        }
+        rootsByDirectory.put(dir, roots);
+        return roots;
+    }
+
+    private List<Root> rootsDefinedBy(Path dir) {
+        List<Root> roots = new ArrayList<>(1);
+        Path relative = projectPath.relativize(dir);
+        int depth = relative.getNameCount();
+        for (Map.Entry<List<String>, ResourceType> entry : MODULE_RESOURCE_DIRECTORIES.entrySet()) {
+            List<String> suffix = entry.getKey();
+            if (endsWith(relative, suffix)) {
+                Path moduleRoot = depth == suffix.size() ? projectPath : projectPath.resolve(relative.subpath(0, depth - suffix.size()));
+                roots.add(new Root(dir, entry.getValue(), moduleRoot));
+            }
+        }
+        if (depth <= NAMED_ROOT_MAX_DEPTH) {
+            String name = dir.getFileName().toString();
+            if (name.equalsIgnoreCase("resources") || name.endsWith("Resources")
+                    || name.equalsIgnoreCase("webapp") || name.equalsIgnoreCase("WebContent")) {
+                ResourceType type;
+                String path = relative.toString().toLowerCase();
+                if (path.contains("test")) {
+                    type = ResourceType.TEST_RESOURCE;
+                } else if (path.contains("build") || path.contains("target") || path.contains("out")) {
+                    type = ResourceType.GENERATED_RESOURCE;
+                } else {
+                    type = ResourceType.MAIN_RESOURCE;
+                }
+                roots.add(new Root(dir, type, null));
+            }
+        }
+        return roots;
+    }
+
+    private static boolean endsWith(Path relative, List<String> suffix) {
+        int depth = relative.getNameCount();
+        if (depth < suffix.size()) return false;
+        for (int i = 1; i <= suffix.size(); i++) {
+            if (!relative.getName(depth - i).toString().equals(suffix.get(suffix.size() - i))) return false;
+        }
+        return true;
+    }
+}
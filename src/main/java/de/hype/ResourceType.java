@@ -0,0 +1,18 @@
+package de.hype;
+
+enum ResourceType {
+    MAIN_RESOURCE("Main"),
+    GENERATED_RESOURCE("Generated"),
+    TEST_RESOURCE("Test");
+
+    private final String displayName;
+
+    ResourceType(String displayName) {
+        this.displayName = displayName;
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
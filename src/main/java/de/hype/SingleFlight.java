@@ -0,0 +1,88 @@
+package de.hype;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Lets identical lookups that are in flight at the same time share one computation. Browsers and curl retries often
+ * send the same link two or three times within a second, the copies wait for the first one instead of walking the
+ * project again.
+ *
+ * @param <K> identifies a lookup, needs equals / hashCode.
+ */
+class SingleFlight<K, V> {
+    interface Computation<V> {
+        V compute() throws IOException;
+    }
+
+    /**
+     * @param latest whether no identical request joined after this one. Only the latest should open IntelliJ.
+     */
+    record Result<V>(V value, boolean latest) {
+    }
+
+    /**
+     * joined and total are only written inside compute calls on the flight's key, which lock it, so a request either
+     * joins before the flight is removed and counts, or finds no flight and starts a new one.
+     */
+    private static class Flight<V> {
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        private int joined;
+        // the number of requests that joined, final once the flight was removed. Read after the future completed.
+        private int total;
+    }
+
+    private static final String LOOKUPS_HELP = "Lookups that computed a result, or joined an identical one in flight.";
+    private static final Metrics.Counter COMPUTED = Metrics.counter("hype_lookups_total", LOOKUPS_HELP, "result", "computed");
+    private static final Metrics.Counter JOINED = Metrics.counter("hype_lookups_total", LOOKUPS_HELP, "result", "joined");
+
+    private final Map<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    Result<V> execute(K key, Computation<V> computation) throws IOException {
+        int[] ticket = new int[1];
+        Flight<V> flight = inFlight.compute(key, (k, existing) -> {
+            Flight<V> joining = existing == null ? new Flight<>() : existing;
+            ticket[0] = ++joining.joined;
+            return joining;
+        });
+        if (ticket[0] == 1) {
+            COMPUTED.increment();
+            try {
+                V value = computation.compute();
+                // removed before completing, so requests arriving from now on compute a fresh result
+                remove(key, flight);
+                flight.future.complete(value);
+            } catch (IOException | RuntimeException | Error e) {
+                remove(key, flight);
+                flight.future.completeExceptionally(e);
+                throw e;
+            }
+            return new Result<>(flight.future.join(), ticket[0] == flight.total);
+        }
+
+        JOINED.increment();
+        System.out.println("Joining identical lookup in flight: " + key);
+        try {
+            V value = flight.future.get();
+            return new Result<>(value, ticket[0] == flight.total);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void remove(K key, Flight<V> flight) {
+        inFlight.computeIfPresent(key, (k, current) -> {
+            if (current != flight) return current;
+            flight.total = flight.joined;
+            return null;
+        });
+    }
+}
@@ -0,0 +1,157 @@
+package de.hype;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * POST a Java or Kotlin stack trace to /stacktrace?project=... and get it back as an HTML page with every frame of the
+ * project linked to its jetbrains:// location.
+ * <p>
+ * Frames are looked up by the file they name, so inner classes ($Inner), lambdas ($lambda$0) and Kotlin file classes
+ * (FooKt in Foo.kt) all end up at the right file. Every file is looked up once and all of them in parallel against the
+ * index; JDK and library frames are not in it and stay plain text. Without a project every indexed project is searched,
+ * for traces of services built from several repositories.
+ */
+class StackTraceHandler implements HttpHandler {
+    private static final int MAX_TRACE_BYTES = 4 * 1024 * 1024;
+    // at [classloader/][module@version/]package.Class$Inner.method(File.java:42)
+    static final Pattern FRAME = Pattern.compile("^(\\s*at\\s+)(?:\\S+/)?([\\w$.]+)\\.([^.(\\s]+)\\(([^:)]*)(?::(\\d{1,9}))?\\)(.*)$");
+
+    record Frame(String className, String file, String line) {
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String remoteAddress = exchange.getRemoteAddress().getAddress().getHostAddress();
+        if (!"127.0.0.1".equals(remoteAddress) && !"::1".equals(remoteAddress)) {
+            sendResponse(exchange, 403, "text/plain", "Access denied");
+            return;
+        }
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            sendResponse(exchange, 405, "text/plain", "POST the stack trace to /stacktrace?project=<project>");
+            return;
+        }
+        String project = null;
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.startsWith("project=")) project = param.substring(8);
+            }
+        }
+        if (project != null && !IntelijHandler.isValidProjectName(project)) {
+            sendResponse(exchange, 400, "text/plain", "Invalid project parameter");
+            return;
+        }
+        if (project != null && !Main.projectExists(project)) {
+            sendResponse(exchange, 404, "text/plain", "Project not found");
+            return;
+        }
+        byte[] body = exchange.getRequestBody().readNBytes(MAX_TRACE_BYTES + 1);
+        if (body.length > MAX_TRACE_BYTES) {
+            sendResponse(exchange, 413, "text/plain", "Stack trace too large");
+            return;
+        }
+        String trace = new String(body, StandardCharsets.UTF_8);
+
+        long start = System.currentTimeMillis();
+        String[] lines = trace.split("\r?\n");
+        Frame[] frames = new Frame[lines.length];
+        Map<String, CompletableFuture<OpenHandler.Location>> lookups = new HashMap<>();
+        Path projectPath = project == null ? null : Paths.get(Main.projectPath(project));
+        for (int i = 0; i < lines.length; i++) {
+            Matcher matcher = FRAME.matcher(lines[i]);
+            if (!matcher.matches()) continue;
+            frames[i] = new Frame(matcher.group(2), matcher.group(4), matcher.group(5));
+            String lookupName = lookupName(frames[i]);
+            String finalProject = project;
+            lookups.computeIfAbsent(lookupName, name -> CompletableFuture.supplyAsync(() -> {
+                if (finalProject == null) {
+                    List<OpenHandler.Location> locations = OpenHandler.searchAllProjects(name);
+                    return locations.isEmpty() ? null : locations.get(0);
+                }
+                return RequestExecutor.withProjectPermit(finalProject, () -> {
+                    String path = OpenHandler.searchClassFile(name, projectPath, false);
+                    return path == null ? null : new OpenHandler.Location(finalProject, path);
+                });
+            }, RequestExecutor.lookups()));
+        }
+        Map<String, OpenHandler.Location> resolved = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<OpenHandler.Location>> lookup : lookups.entrySet()) {
+            try {
+                resolved.put(lookup.getKey(), lookup.getValue().join());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                resolved.put(lookup.getKey(), null);
+            }
+        }
+
+        StringBuilder html = new StringBuilder(trace.length() * 2);
+        html.append("<html><head><meta charset=\"utf-8\"><title>Stack trace").append(project == null ? "" : " of " + escape(project)).append("</title></head><body><pre>");
+        int linked = 0;
+        for (int i = 0; i < lines.length; i++) {
+            Frame frame = frames[i];
+            OpenHandler.Location location = frame == null ? null : resolved.get(lookupName(frame));
+            if (location == null) {
+                html.append(escape(lines[i])).append('\n');
+                continue;
+            }
+            linked++;
+            String url = "jetbrains://idea/navigate/reference?project=" + location.project() + "&path=" + location.path();
+            if (frame.line() != null) url += ":%d".formatted(Math.max(0, Integer.parseInt(frame.line()) - 1));
+            Matcher matcher = FRAME.matcher(lines[i]);
+            matcher.matches();
+            html.append(escape(lines[i].substring(0, matcher.end(1))))
+                    .append("<a href=\"").append(escape(url)).append("\">")
+                    .append(escape(lines[i].substring(matcher.end(1), matcher.start(6))))
+                    .append("</a>").append(escape(matcher.group(6))).append('\n');
+        }
+        html.append("</pre></body></html>");
+        System.out.println("Linked %d frames of a %d line stack trace (%d files looked up) in %dms".formatted(linked, lines.length, lookups.size(), System.currentTimeMillis() - start));
+        sendResponse(exchange, 200, "text/html; charset=utf-8", html.toString());
+    }
+
+    /**
+     * @return the class whose source file contains the frame: the package of the frame's class plus the file name,
+     * which also covers inner classes, lambdas and Kotlin file classes. Classes in the default package resolve to the
+     * bare file name.
+     */
+    static String lookupName(Frame frame) {
+        String className = frame.className();
+        int lastDot = className.lastIndexOf('.');
+        String packagePrefix = lastDot < 0 ? "" : className.substring(0, lastDot + 1);
+        String file = frame.file();
+        if (file.endsWith(".java") || file.endsWith(".kt")) {
+            String name = file.substring(0, file.lastIndexOf('.'));
+            return packagePrefix + name;
+        }
+        // "Unknown Source" / "Native Method": the outer class is the best guess
+        return className.split("\\$")[0];
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static void sendResponse(HttpExchange exchange, int code, String contentType, String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
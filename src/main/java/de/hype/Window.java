@@ -3,11 +3,13 @@ package de.hype;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * A top level window. Talks to the X server directly through {@link X11Connection} and only falls back to forking
+ * xprop / wmctrl if that connection can not be established.
+ */
 public class Window {
     private String id;
     private final String windowName;
@@ -55,11 +57,16 @@ public class Window {
     public void setAlwaysOnTop(boolean alwaysOnTop) {
         if (this.alwaysOnTop == alwaysOnTop) return;
         this.alwaysOnTop = alwaysOnTop;
+        X11Connection x11 = X11Connection.shared();
+        if (x11 != null) {
+            changeState(x11, alwaysOnTop, "_NET_WM_STATE_ABOVE");
+            return;
+        }
         try {
             if (alwaysOnTop) {
-                new ProcessBuilder("wmctrl", "-i", "-r", id, "-b", "add,above").start().waitFor();
+                Metrics.start(new ProcessBuilder("wmctrl", "-i", "-r", id, "-b", "add,above")).waitFor();
             } else {
-                new ProcessBuilder("wmctrl", "-i", "-r", id, "-b", "remove,above").start().waitFor();
+                Metrics.start(new ProcessBuilder("wmctrl", "-i", "-r", id, "-b", "remove,above")).waitFor();
             }
         } catch (IOException | InterruptedException e) {
             e.printStackTrace();
@@ -69,20 +76,83 @@ public class Window {
     public void setAlwaysOnBottom(boolean alwaysOnBottom) {
         if (this.alwaysOnBottom == alwaysOnBottom) return;
         this.alwaysOnBottom = alwaysOnBottom;
+        X11Connection x11 = X11Connection.shared();
+        if (x11 != null) {
+            changeState(x11, alwaysOnBottom, "_NET_WM_STATE_BELOW");
+            return;
+        }
         try {
             if (alwaysOnBottom) {
-                new ProcessBuilder("wmctrl", "-i", "-r", id, "-b", "add,below").start().waitFor();
+                Metrics.start(new ProcessBuilder("wmctrl", "-i", "-r", id, "-b", "add,below")).waitFor();
             } else {
-                new ProcessBuilder("wmctrl", "-i", "-r", id, "-b", "remove,below").start().waitFor();
+                Metrics.start(new ProcessBuilder("wmctrl", "-i", "-r", id, "-b", "remove,below")).waitFor();
             }
         } catch (IOException | InterruptedException e) {
             e.printStackTrace();
         }
     }
 
+    private void changeState(X11Connection x11, boolean add, String state) {
+        x11.sendClientMessages(List.of(stateMessage(x11, add, state)));
+    }
+
+    private X11Connection.ClientMessage stateMessage(X11Connection x11, boolean add, String state) {
+        // source indication 2: the request comes from a pager, like it does for wmctrl
+        return new X11Connection.ClientMessage(toXid(id), "_NET_WM_STATE", add ? 1 : 0, x11.atom(state), 0, 2);
+    }
+
+    /**
+     * Sets the above / below flags of the windows back to the ones of their originals. Only flags that differ are
+     * changed, windows that were never touched get no request at all. With a direct X connection all changes go out
+     * in a single write.
+     *
+     * @return the number of windows that had to be changed.
+     */
+    public static int restoreStates(Collection<Window> windows, Map<String, Window> originals) {
+        X11Connection x11 = X11Connection.shared();
+        List<X11Connection.ClientMessage> messages = new ArrayList<>();
+        int changed = 0;
+        for (Window window : windows) {
+            Window original = originals.get(window.getId());
+            if (original == null) continue;
+            if (window.alwaysOnTop == original.alwaysOnTop && window.alwaysOnBottom == original.alwaysOnBottom) continue;
+            changed++;
+            if (x11 == null) {
+                window.setAlwaysOnTop(original.alwaysOnTop);
+                window.setAlwaysOnBottom(original.alwaysOnBottom);
+                continue;
+            }
+            if (window.alwaysOnTop != original.alwaysOnTop) {
+                window.alwaysOnTop = original.alwaysOnTop;
+                messages.add(window.stateMessage(x11, window.alwaysOnTop, "_NET_WM_STATE_ABOVE"));
+            }
+            if (window.alwaysOnBottom != original.alwaysOnBottom) {
+                window.alwaysOnBottom = original.alwaysOnBottom;
+                messages.add(window.stateMessage(x11, window.alwaysOnBottom, "_NET_WM_STATE_BELOW"));
+            }
+        }
+        if (x11 != null) x11.sendClientMessages(messages);
+        return changed;
+    }
+
     public void setAsFocus() {
+        X11Connection x11 = X11Connection.shared();
+        if (x11 != null) {
+            int xid = toXid(id);
+            try {
+                // switch to the window's desktop first like wmctrl -a does
+                int[] desktop = x11.getProperty(xid, "_NET_WM_DESKTOP").join().asInts();
+                if (desktop.length == 1 && desktop[0] != -1) {
+                    x11.sendClientMessage(x11.getRootWindow(), "_NET_CURRENT_DESKTOP", desktop[0], 0);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            x11.sendClientMessage(xid, "_NET_ACTIVE_WINDOW", 2, 0, 0);
+            return;
+        }
         try {
-            new ProcessBuilder("wmctrl", "-i", "-a", id).start().waitFor();
+            Metrics.start(new ProcessBuilder("wmctrl", "-i", "-a", id)).waitFor();
         } catch (IOException | InterruptedException e) {
             e.printStackTrace();
         }
@@ -92,7 +162,46 @@ public class Window {
         return programmName;
     }
 
+    /**
+     * @param titlePrefix the start of the title including the separator, like "project – ".
+     * @return the topmost window whose title starts with the prefix, null if there is none.
+     */
+    public static Window findByTitlePrefix(String titlePrefix) {
+        WindowRegistry registry = WindowRegistry.get();
+        if (registry != null) return registry.findByTitlePrefix(titlePrefix);
+        return findByTitlePrefix(getCurrentWindows(), titlePrefix);
+    }
+
+    /**
+     * @param windows topmost first, as returned by {@link #getCurrentWindows()}.
+     * @return the first window whose title starts with the prefix, null if there is none.
+     */
+    public static Window findByTitlePrefix(Collection<Window> windows, String titlePrefix) {
+        for (Window window : windows) {
+            if (window.getWindowName().startsWith(titlePrefix)) return window;
+        }
+        return null;
+    }
+
+    static int toXid(String id) {
+        return Long.decode(id).intValue();
+    }
+
+    static String toId(int xid) {
+        return "0x%x".formatted(xid);
+    }
+
     public static List<Window> getCurrentWindows() {
+        WindowRegistry registry = WindowRegistry.get();
+        if (registry != null) return registry.getWindows();
+        X11Connection x11 = X11Connection.shared();
+        if (x11 != null) {
+            try {
+                return getCurrentWindows(x11);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
         List<Window> windows = new ArrayList<>();
         List<String> windowIds = getWindowIdsFromNetClientListStacking();
 
@@ -101,7 +210,7 @@ public class Window {
                 // Get window details using xprop
                 String[] xpropCommand = {"xprop", "-id", winId, "WM_NAME", "WM_CLASS", "_NET_WM_STATE"};
                 ProcessBuilder pb = new ProcessBuilder(xpropCommand);
-                Process process = pb.start();
+                Process process = Metrics.start(pb);
                 BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
                 String line;
                 String windowName = "";
@@ -140,6 +249,116 @@ public class Window {
         return windows;
     }
 
+    private static List<Window> getCurrentWindows(X11Connection x11) {
+        int[] stacking = x11.getProperty(x11.getRootWindow(), "_NET_CLIENT_LIST_STACKING").join().asInts();
+        // all requests are sent before the first reply is awaited, so this is one round trip for any number of windows
+        List<CompletableFuture<Window>> futures = new ArrayList<>();
+        for (int xid : stacking) {
+            futures.add(read(x11, xid));
+        }
+        List<Window> windows = new ArrayList<>();
+        for (CompletableFuture<Window> future : futures) {
+            Window window = future.exceptionally(e -> null).join(); // closed in between
+            if (window != null) windows.add(window);
+        }
+        Collections.reverse(windows);
+        return windows;
+    }
+
+    static CompletableFuture<Window> read(X11Connection x11, int xid) {
+        CompletableFuture<String> name = readName(x11, xid);
+        CompletableFuture<X11Connection.Property> wmClass = x11.getProperty(xid, "WM_CLASS");
+        CompletableFuture<X11Connection.Property> state = x11.getProperty(xid, "_NET_WM_STATE");
+        int above = x11.atom("_NET_WM_STATE_ABOVE");
+        int below = x11.atom("_NET_WM_STATE_BELOW");
+        // runs on the X11 reader thread once all replies are in, so join() does not block here
+        return CompletableFuture.allOf(name, wmClass, state).thenApply(ignored -> {
+            List<String> classNames = wmClass.join().asStrings(false);
+            boolean isAbove = false;
+            boolean isBelow = false;
+            for (int atom : state.join().asInts()) {
+                if (atom == above) isAbove = true;
+                if (atom == below) isBelow = true;
+            }
+            return new Window(toId(xid), name.join(), classNames.isEmpty() ? "" : classNames.get(0), isAbove, isBelow);
+        });
+    }
+
+    /**
+     * @return the UTF-8 _NET_WM_NAME, or WM_NAME for windows that do not set it.
+     */
+    static CompletableFuture<String> readName(X11Connection x11, int xid) {
+        CompletableFuture<X11Connection.Property> netName = x11.getProperty(xid, "_NET_WM_NAME");
+        CompletableFuture<X11Connection.Property> name = x11.getProperty(xid, "WM_NAME");
+        return netName.thenCombine(name, (utf8, legacy) -> utf8.exists() ? utf8.asString(true) : legacy.asString(false));
+    }
+
+    /**
+     * @return the id of the focused window like it appears in _NET_CLIENT_LIST_STACKING, null if there is none.
+     */
+    public static String getActiveWindowId() {
+        WindowRegistry registry = WindowRegistry.get();
+        if (registry != null) return registry.getActiveWindowId();
+        X11Connection x11 = X11Connection.shared();
+        if (x11 != null) {
+            try {
+                int[] active = x11.getProperty(x11.getRootWindow(), "_NET_ACTIVE_WINDOW").join().asInts();
+                return active.length == 0 || active[0] == 0 ? null : toId(active[0]);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        String value = readProperty("-root", "_NET_ACTIVE_WINDOW");
+        if (value == null || !value.contains("#")) return null;
+        String id = value.replaceFirst(".*#", "").trim();
+        return id.equals("0x0") ? null : id;
+    }
+
+    /**
+     * @return the current title of a window, null if it does not exist anymore.
+     */
+    public static String getWindowName(String id) {
+        WindowRegistry registry = WindowRegistry.get();
+        if (registry != null) return registry.getWindowName(id);
+        X11Connection x11 = X11Connection.shared();
+        if (x11 != null) {
+            try {
+                return readName(x11, toXid(id)).join();
+            } catch (RuntimeException e) {
+                return null; // BadWindow, it was closed
+            }
+        }
+        String value = readProperty("-id", id, "WM_NAME");
+        if (value == null || !value.contains("= ")) return null;
+        return value.split("= ", 2)[1].replace("\"", "").trim();
+    }
+
+    public static boolean isSameId(String id, String otherId) {
+        if (id == null || otherId == null) return id == otherId;
+        try {
+            return Long.decode(id).equals(Long.decode(otherId));
+        } catch (NumberFormatException e) {
+            return id.equals(otherId);
+        }
+    }
+
+    private static String readProperty(String... target) {
+        List<String> command = new ArrayList<>();
+        command.add("xprop");
+        command.addAll(Arrays.asList(target));
+        try {
+            Process process = Metrics.start(new ProcessBuilder(command));
+            String line;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                line = reader.readLine();
+            }
+            return process.waitFor() == 0 ? line : null;
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     private static List<String> getWindowIdsFromNetClientListStacking() {
         List<String> windowIds = new ArrayList<>();
         // Replace this with the actual command to get the _NET_CLIENT_LIST_STACKING
@@ -147,7 +366,7 @@ public class Window {
         String command = "xprop -root _NET_CLIENT_LIST_STACKING"; // Example command
         try {
             ProcessBuilder pb = new ProcessBuilder("bash", "-c", command);
-            Process process = pb.start();
+            Process process = Metrics.start(pb);
             process.waitFor();
             BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
             String line = reader.readLine();
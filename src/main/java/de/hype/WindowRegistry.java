@@ -0,0 +1,211 @@
+package de.hype;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The current top level windows, kept up to date from X events instead of enumerating all windows on every click.
+ * <p>
+ * Subscribes to property changes of the root window (_NET_CLIENT_LIST_STACKING, _NET_ACTIVE_WINDOW) and of every
+ * client window (title, class, state) and re-reads only what changed. Windows are additionally indexed by the start
+ * of their title ("project – "), so finding the IntelliJ window of a project is a map lookup.
+ * Only available with a direct {@link X11Connection}.
+ */
+class WindowRegistry {
+    private static final int PROPERTY_NOTIFY = 28;
+    // IntelliJ titles are "project – file", while a project is still opening they may use a plain hyphen
+    private static final List<String> TITLE_SEPARATORS = List.of(" – ", " - ");
+    private static WindowRegistry instance;
+
+    private final X11Connection x11;
+    private final int root;
+    private final int clientListStacking;
+    private final int activeWindowAtom;
+    private final Set<Integer> windowAtoms;
+    private final ExecutorService updater = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "WindowRegistry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Integer, Window> windows = new ConcurrentHashMap<>();
+    // bottom to top, like _NET_CLIENT_LIST_STACKING
+    private volatile int[] stacking = new int[0];
+    private volatile int activeWindow = 0;
+    private volatile Map<String, Window> byTitlePrefix = Collections.emptyMap();
+    private long version = 0;
+
+    private WindowRegistry(X11Connection x11) {
+        this.x11 = x11;
+        this.root = x11.getRootWindow();
+        this.clientListStacking = x11.atom("_NET_CLIENT_LIST_STACKING");
+        this.activeWindowAtom = x11.atom("_NET_ACTIVE_WINDOW");
+        this.windowAtoms = Set.of(x11.atom("_NET_WM_NAME"), x11.atom("WM_NAME"), x11.atom("WM_CLASS"), x11.atom("_NET_WM_STATE"));
+    }
+
+    /**
+     * @return the registry, started and filled on first use. null if there is no direct connection to the X server.
+     * A registry whose connection closed is dropped, the next call starts a new one on a new connection.
+     */
+    static synchronized WindowRegistry get() {
+        if (instance != null && !instance.x11.isClosed()) return instance;
+        if (instance != null) {
+            System.err.println("X11 connection of the window registry closed, reconnecting");
+            instance.updater.shutdownNow();
+            instance = null;
+        }
+        X11Connection x11 = X11Connection.shared();
+        if (x11 == null) return null;
+        WindowRegistry registry = null;
+        try {
+            registry = new WindowRegistry(x11);
+            registry.start();
+            instance = registry;
+        } catch (RuntimeException | InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            if (registry != null) {
+                x11.setEventListener(null);
+                registry.updater.shutdownNow();
+            }
+        }
+        return instance;
+    }
+
+    private void start() throws InterruptedException, ExecutionException {
+        x11.setEventListener(this::onEvent);
+        x11.selectInput(root, X11Connection.PROPERTY_CHANGE_MASK);
+        updater.submit(() -> {
+            refreshStacking();
+            refreshActiveWindow();
+        }).get();
+    }
+
+    /**
+     * Runs on the X11 reader thread, which must never wait for a reply. All work is handed to the updater thread.
+     */
+    private void onEvent(ByteBuffer event) {
+        if ((event.get(0) & 0x7f) != PROPERTY_NOTIFY) return;
+        int window = event.getInt(4);
+        int atom = event.getInt(8);
+        updater.execute(() -> {
+            try {
+                propertyChanged(window, atom);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void propertyChanged(int window, int atom) {
+        if (window == root) {
+            if (atom == clientListStacking) refreshStacking();
+            else if (atom == activeWindowAtom) refreshActiveWindow();
+        } else if (windows.containsKey(window) && windowAtoms.contains(atom)) {
+            try {
+                windows.put(window, Window.read(x11, window).join());
+            } catch (CompletionException e) {
+                windows.remove(window); // destroyed, the stacking update follows
+            }
+            reindex();
+        }
+    }
+
+    private void refreshStacking() {
+        int[] current = x11.getProperty(root, "_NET_CLIENT_LIST_STACKING").join().asInts();
+        Map<Integer, CompletableFuture<Window>> added = new HashMap<>();
+        for (int xid : current) {
+            if (windows.containsKey(xid)) continue;
+            // subscribe before reading, so no title change between the two is lost
+            x11.selectInput(xid, X11Connection.PROPERTY_CHANGE_MASK);
+            added.put(xid, Window.read(x11, xid));
+        }
+        for (Map.Entry<Integer, CompletableFuture<Window>> entry : added.entrySet()) {
+            Window window = entry.getValue().exceptionally(e -> null).join();
+            if (window != null) windows.put(entry.getKey(), window);
+        }
+        Set<Integer> present = new HashSet<>();
+        for (int xid : current) {
+            present.add(xid);
+        }
+        windows.keySet().retainAll(present);
+        stacking = current;
+        reindex();
+    }
+
+    private void refreshActiveWindow() {
+        int[] active = x11.getProperty(root, "_NET_ACTIVE_WINDOW").join().asInts();
+        activeWindow = active.length == 0 ? 0 : active[0];
+        changed();
+    }
+
+    private void reindex() {
+        Map<String, Window> index = new HashMap<>();
+        // bottom to top, so the topmost window of a project wins
+        for (int xid : stacking) {
+            Window window = windows.get(xid);
+            if (window == null) continue;
+            String title = window.getWindowName();
+            for (String separator : TITLE_SEPARATORS) {
+                int end = title.indexOf(separator);
+                if (end >= 0) index.put(title.substring(0, end + separator.length()), window);
+            }
+        }
+        byTitlePrefix = index;
+        changed();
+    }
+
+    private synchronized void changed() {
+        version++;
+        notifyAll();
+    }
+
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Blocks until anything changed after the given version or the timeout passed.
+     *
+     * @return the current version.
+     */
+    synchronized long awaitChange(long sinceVersion, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (version == sinceVersion) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) break;
+            wait(remaining);
+        }
+        return version;
+    }
+
+    /**
+     * @return copies of all windows from top to bottom, like {@link Window#getCurrentWindows()}.
+     */
+    List<Window> getWindows() {
+        int[] order = stacking;
+        List<Window> result = new ArrayList<>(order.length);
+        for (int i = order.length - 1; i >= 0; i--) {
+            Window window = windows.get(order[i]);
+            if (window != null) result.add(window.copy());
+        }
+        return result;
+    }
+
+    /**
+     * @param prefix the start of the title up to and including the separator, like "project – ".
+     */
+    Window findByTitlePrefix(String prefix) {
+        Window window = byTitlePrefix.get(prefix);
+        return window == null ? null : window.copy();
+    }
+
+    String getActiveWindowId() {
+        int active = activeWindow;
+        return active == 0 ? null : Window.toId(active);
+    }
+
+    String getWindowName(String id) {
+        Window window = windows.get(Window.toXid(id));
+        return window == null ? null : window.getWindowName();
+    }
+}
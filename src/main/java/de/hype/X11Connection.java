@@ -0,0 +1,446 @@
+package de.hype;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Minimal client for the X11 wire protocol over the X server's unix domain socket, so reading window properties and
+ * sending EWMH client messages needs no xprop / wmctrl process.
+ * <p>
+ * Only the few requests we need are implemented: InternAtom, GetProperty, ChangeWindowAttributes (to select events)
+ * and SendEvent. Requests are written right away and a reader thread completes the pending replies by sequence
+ * number, so issuing many requests before joining any of them costs a single round trip.
+ * <p>
+ * The display is taken from {@code -Dhype.display} or $DISPLAY (only local displays like ":0" or ":99.0"), the
+ * MIT-MAGIC-COOKIE-1 from $XAUTHORITY or ~/.Xauthority.
+ */
+class X11Connection implements Closeable {
+    private static final byte OPCODE_CHANGE_WINDOW_ATTRIBUTES = 2;
+    private static final byte OPCODE_INTERN_ATOM = 16;
+    private static final byte OPCODE_GET_PROPERTY = 20;
+    private static final byte OPCODE_SEND_EVENT = 25;
+    private static final int CW_EVENT_MASK = 1 << 11;
+    private static final int CLIENT_MESSAGE = 33;
+    static final int PROPERTY_CHANGE_MASK = 1 << 22;
+    static final int SUBSTRUCTURE_NOTIFY_MASK = 1 << 19;
+    static final int SUBSTRUCTURE_REDIRECT_MASK = 1 << 20;
+    static final int ANY_PROPERTY_TYPE = 0;
+    private static final String AUTH_NAME = "MIT-MAGIC-COOKIE-1";
+    private static final int FAMILY_LOCAL = 256;
+    private static final int FAMILY_WILD = 65535;
+
+    private static X11Connection shared;
+    private static boolean sharedFailed = false;
+
+    /**
+     * @param format 8, 16 or 32. Values are always returned as raw bytes in little endian.
+     */
+    record Property(int type, int format, byte[] value) {
+        boolean exists() {
+            return type != 0;
+        }
+
+        int[] asInts() {
+            if (format != 32) return new int[0];
+            ByteBuffer buffer = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN);
+            int[] ints = new int[value.length / 4];
+            for (int i = 0; i < ints.length; i++) {
+                ints[i] = buffer.getInt();
+            }
+            return ints;
+        }
+
+        /**
+         * @return the value as a list of null separated strings, like WM_CLASS.
+         */
+        List<String> asStrings(boolean utf8) {
+            List<String> strings = new ArrayList<>();
+            int start = 0;
+            for (int i = 0; i <= value.length; i++) {
+                if (i == value.length || value[i] == 0) {
+                    if (i > start || i < value.length) strings.add(new String(value, start, i - start, utf8 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1));
+                    start = i + 1;
+                }
+            }
+            return strings;
+        }
+
+        String asString(boolean utf8) {
+            List<String> strings = asStrings(utf8);
+            return strings.isEmpty() ? "" : strings.get(0);
+        }
+    }
+
+    private final SocketChannel channel;
+    private final int rootWindow;
+    private final Object writeLock = new Object();
+    // sequence number of the last request, 16 bit on the wire
+    private int sequence = 0;
+    private final Map<Integer, CompletableFuture<ByteBuffer>> pendingReplies = new ConcurrentHashMap<>();
+    private final Map<String, Integer> atoms = new ConcurrentHashMap<>();
+    private final Map<Integer, String> atomNames = new ConcurrentHashMap<>();
+    private volatile Consumer<ByteBuffer> eventListener;
+    private volatile boolean closed = false;
+
+    private X11Connection(SocketChannel channel, int rootWindow) {
+        this.channel = channel;
+        this.rootWindow = rootWindow;
+    }
+
+    /**
+     * @return the connection shared by the whole daemon, null if no X server can be reached. Callers fall back to the
+     * command line tools then.
+     */
+    static synchronized X11Connection shared() {
+        if (shared != null && !shared.closed) return shared;
+        if (sharedFailed) return null;
+        try {
+            shared = open(System.getProperty("hype.display", System.getenv("DISPLAY")));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("No direct connection to the X server, using xprop / wmctrl: " + e.getMessage());
+            sharedFailed = true;
+            shared = null;
+        }
+        return shared;
+    }
+
+    static X11Connection open(String display) throws IOException {
+        if (display == null || display.isEmpty()) throw new IOException("DISPLAY is not set");
+        int colon = display.lastIndexOf(':');
+        String host = colon < 0 ? "" : display.substring(0, colon);
+        if (!host.isEmpty() && !host.equals("unix") && !host.equals("localhost")) throw new IOException("Not a local display: " + display);
+        String[] numbers = display.substring(colon + 1).split("\\.");
+        int displayNumber = Integer.parseInt(numbers[0]);
+        int screenNumber = numbers.length > 1 ? Integer.parseInt(numbers[1]) : 0;
+
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of("/tmp/.X11-unix/X" + displayNumber));
+            byte[] cookie = readCookie(displayNumber);
+            int rootWindow = setup(channel, cookie, screenNumber);
+            X11Connection connection = new X11Connection(channel, rootWindow);
+            Thread reader = new Thread(connection::readLoop, "X11Reader");
+            reader.setDaemon(true);
+            reader.start();
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static byte[] readCookie(int displayNumber) {
+        String file = System.getenv("XAUTHORITY");
+        Path path = file != null ? Paths.get(file) : Paths.get(System.getProperty("user.home"), ".Xauthority");
+        if (!Files.isReadable(path)) return null;
+        String hostname = localHostname();
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            while (in.available() > 0) {
+                int family = in.readUnsignedShort();
+                String address = new String(readCounted(in), StandardCharsets.ISO_8859_1);
+                String number = new String(readCounted(in), StandardCharsets.ISO_8859_1);
+                String name = new String(readCounted(in), StandardCharsets.ISO_8859_1);
+                byte[] data = readCounted(in);
+                if (!name.equals(AUTH_NAME)) continue;
+                if (!number.isEmpty() && !number.equals(String.valueOf(displayNumber))) continue;
+                if (family == FAMILY_WILD || (family == FAMILY_LOCAL && (hostname == null || address.equals(hostname)))) return data;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private static String localHostname() {
+        try {
+            return Files.readString(Paths.get("/proc/sys/kernel/hostname")).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readCounted(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Sends the connection setup and returns the root window of the screen.
+     */
+    private static int setup(SocketChannel channel, byte[] cookie, int screenNumber) throws IOException {
+        byte[] name = cookie == null ? new byte[0] : AUTH_NAME.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] data = cookie == null ? new byte[0] : cookie;
+        ByteBuffer request = ByteBuffer.allocate(12 + pad(name.length) + pad(data.length)).order(ByteOrder.LITTLE_ENDIAN);
+        request.put((byte) 'l').put((byte) 0).putShort((short) 11).putShort((short) 0)
+                .putShort((short) name.length).putShort((short) data.length).putShort((short) 0);
+        request.put(name).position(12 + pad(name.length));
+        request.put(data).position(request.capacity());
+        writeFully(channel, request.flip());
+
+        byte[] header = new byte[8];
+        readFully(channel, header, 0, header.length);
+        ByteBuffer head = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        int status = header[0];
+        int reasonLength = header[1] & 0xff;
+        byte[] additional = new byte[(head.getShort(6) & 0xffff) * 4];
+        readFully(channel, additional, 0, additional.length);
+        if (status != 1) {
+            int length = status == 0 ? reasonLength : additional.length;
+            throw new IOException("X server refused the connection: " + new String(additional, 0, length, StandardCharsets.ISO_8859_1).trim());
+        }
+
+        ByteBuffer info = ByteBuffer.wrap(additional).order(ByteOrder.LITTLE_ENDIAN);
+        int vendorLength = info.getShort(16) & 0xffff;
+        int screens = info.get(20) & 0xff;
+        int formats = info.get(21) & 0xff;
+        if (screenNumber >= screens) throw new IOException("No screen " + screenNumber);
+        int offset = 32 + pad(vendorLength) + formats * 8;
+        for (int screen = 0; screen < screenNumber; screen++) {
+            int depths = info.get(offset + 39) & 0xff;
+            offset += 40;
+            for (int depth = 0; depth < depths; depth++) {
+                int visuals = info.getShort(offset + 2) & 0xffff;
+                offset += 8 + visuals * 24;
+            }
+        }
+        return info.getInt(offset);
+    }
+
+    static int pad(int length) {
+        return (length + 3) & ~3;
+    }
+
+    private static void readFully(SocketChannel channel, byte[] bytes, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new IOException("X11 connection closed");
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    int getRootWindow() {
+        return rootWindow;
+    }
+
+    /**
+     * @return true once the connection was closed or the X server went away. Every request fails from then on.
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Receives every event sent to this client (32 bytes each, little endian). Called on the reader thread.
+     */
+    void setEventListener(Consumer<ByteBuffer> eventListener) {
+        this.eventListener = eventListener;
+    }
+
+    private void readLoop() {
+        byte[] header = new byte[32];
+        try {
+            while (!closed) {
+                readFully(channel, header, 0, 32);
+                int sequenceNumber = ((header[2] & 0xff) | (header[3] & 0xff) << 8);
+                if (header[0] == 1) {
+                    ByteBuffer head = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+                    byte[] reply = Arrays.copyOf(header, 32 + head.getInt(4) * 4);
+                    readFully(channel, reply, 32, reply.length - 32);
+                    CompletableFuture<ByteBuffer> future = pendingReplies.remove(sequenceNumber);
+                    if (future != null) future.complete(ByteBuffer.wrap(reply).order(ByteOrder.LITTLE_ENDIAN));
+                } else if (header[0] == 0) {
+                    String error = "X11 error %d for request %d (sequence %d)".formatted(header[1] & 0xff, header[10] & 0xff, sequenceNumber);
+                    CompletableFuture<ByteBuffer> future = pendingReplies.remove(sequenceNumber);
+                    if (future != null) {
+                        future.completeExceptionally(new IOException(error));
+                    } else {
+                        // requests without reply, like a client message for a window that is already gone
+                        System.err.println(error);
+                    }
+                } else {
+                    Consumer<ByteBuffer> listener = eventListener;
+                    if (listener != null) {
+                        try {
+                            listener.accept(ByteBuffer.wrap(header.clone()).order(ByteOrder.LITTLE_ENDIAN));
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) e.printStackTrace();
+        } finally {
+            closed = true;
+            pendingReplies.values().forEach(future -> future.completeExceptionally(new IOException("X11 connection closed")));
+            pendingReplies.clear();
+        }
+    }
+
+    /**
+     * Writes a request. If it has a reply, the future is registered under its sequence number before the request
+     * can reach the server.
+     */
+    private CompletableFuture<ByteBuffer> send(ByteBuffer request, boolean hasReply) {
+        return send(request, 1, hasReply);
+    }
+
+    /**
+     * @param count the number of requests in the buffer, only the last one may have a reply.
+     */
+    private CompletableFuture<ByteBuffer> send(ByteBuffer request, int count, boolean hasReply) {
+        CompletableFuture<ByteBuffer> future = hasReply ? new CompletableFuture<>() : null;
+        if (closed) {
+            if (future != null) future.completeExceptionally(new IOException("X11 connection closed"));
+            return future;
+        }
+        synchronized (writeLock) {
+            sequence = (sequence + count) & 0xffff;
+            if (future != null) {
+                pendingReplies.put(sequence, future);
+                // the reader may have failed all pending replies between the check above and the put
+                if (closed) {
+                    pendingReplies.remove(sequence);
+                    future.completeExceptionally(new IOException("X11 connection closed"));
+                    return future;
+                }
+            }
+            try {
+                writeFully(channel, request.flip());
+            } catch (IOException e) {
+                if (future != null) {
+                    pendingReplies.remove(sequence);
+                    future.completeExceptionally(e);
+                } else {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return future;
+    }
+
+    static ByteBuffer request(byte opcode, int data, int length) {
+        ByteBuffer request = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        request.put(opcode).put((byte) data).putShort((short) (length / 4));
+        return request;
+    }
+
+    CompletableFuture<Integer> internAtom(String name) {
+        Integer known = atoms.get(name);
+        if (known != null) return CompletableFuture.completedFuture(known);
+        return send(internAtomRequest(name), true).thenApply(reply -> {
+            int atom = reply.getInt(8);
+            atoms.put(name, atom);
+            atomNames.put(atom, name);
+            return atom;
+        });
+    }
+
+    static ByteBuffer internAtomRequest(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer request = request(OPCODE_INTERN_ATOM, 0, 8 + pad(bytes.length));
+        request.putShort((short) bytes.length).putShort((short) 0).put(bytes).position(request.capacity());
+        return request;
+    }
+
+    /**
+     * @return the atom, blocking only the first time a name is used.
+     */
+    int atom(String name) {
+        return internAtom(name).join();
+    }
+
+    /**
+     * @return the names of atoms interned through this connection, null for others.
+     */
+    String atomName(int atom) {
+        return atomNames.get(atom);
+    }
+
+    /**
+     * Reads up to maxLength 32 bit units of a property. A missing property has type 0.
+     */
+    CompletableFuture<Property> getProperty(int window, int property, int type, int maxLength) {
+        ByteBuffer request = request(OPCODE_GET_PROPERTY, 0, 24);
+        request.putInt(window).putInt(property).putInt(type).putInt(0).putInt(maxLength);
+        return send(request, true).thenApply(reply -> {
+            int format = reply.get(1) & 0xff;
+            int valueType = reply.getInt(8);
+            int valueLength = reply.getInt(16) * (format / 8);
+            byte[] value = new byte[valueType == 0 ? 0 : valueLength];
+            reply.get(32, value);
+            return new Property(valueType, format, value);
+        });
+    }
+
+    CompletableFuture<Property> getProperty(int window, String property) {
+        return getProperty(window, atom(property), ANY_PROPERTY_TYPE, 1 << 16);
+    }
+
+    /**
+     * Subscribes to the events in the mask for the window, replacing the previous mask of this client.
+     */
+    void selectInput(int window, int eventMask) {
+        ByteBuffer request = request(OPCODE_CHANGE_WINDOW_ATTRIBUTES, 0, 16);
+        request.putInt(window).putInt(CW_EVENT_MASK).putInt(eventMask);
+        send(request, false);
+    }
+
+    /**
+     * An EWMH client message, sent to the root window the way pagers like wmctrl ask the window manager to do something.
+     */
+    record ClientMessage(int window, String type, int... data) {
+    }
+
+    void sendClientMessage(int window, String type, int... data) {
+        sendClientMessages(List.of(new ClientMessage(window, type, data)));
+    }
+
+    /**
+     * Sends all messages with a single write.
+     */
+    void sendClientMessages(List<ClientMessage> messages) {
+        if (messages.isEmpty()) return;
+        ByteBuffer request = ByteBuffer.allocate(44 * messages.size()).order(ByteOrder.LITTLE_ENDIAN);
+        for (ClientMessage message : messages) {
+            int messageType = atom(message.type());
+            request.put(OPCODE_SEND_EVENT).put((byte) 0).putShort((short) 11);
+            request.putInt(rootWindow).putInt(SUBSTRUCTURE_REDIRECT_MASK | SUBSTRUCTURE_NOTIFY_MASK);
+            request.put((byte) CLIENT_MESSAGE).put((byte) 32).putShort((short) 0).putInt(message.window()).putInt(messageType);
+            for (int i = 0; i < 5; i++) {
+                request.putInt(i < message.data().length ? message.data()[i] : 0);
+            }
+        }
+        send(request, messages.size(), false);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
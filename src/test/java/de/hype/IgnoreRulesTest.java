@@ -0,0 +1,98 @@
+package de.hype;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IgnoreRulesTest {
+    private static IgnoreRules rules(String... lines) {
+        return IgnoreRules.parse(List.of(lines));
+    }
+
+    @Test
+    void unanchoredPatternMatchesInAnyDirectory() {
+        IgnoreRules rules = rules("*.log");
+        assertEquals(Boolean.TRUE, rules.match("app.log", false));
+        assertEquals(Boolean.TRUE, rules.match("a/b/app.log", false));
+        assertNull(rules.match("app.log.txt", false));
+    }
+
+    @Test
+    void slashAnchorsToTheIgnoreFileDirectory() {
+        IgnoreRules rules = rules("/build", "docs/*.html");
+        assertEquals(Boolean.TRUE, rules.match("build", true));
+        assertNull(rules.match("module/build", true));
+        assertEquals(Boolean.TRUE, rules.match("docs/index.html", false));
+        assertNull(rules.match("docs/api/index.html", false));
+        assertNull(rules.match("module/docs/index.html", false));
+    }
+
+    @Test
+    void trailingSlashOnlyMatchesDirectories() {
+        IgnoreRules rules = rules("out/");
+        assertEquals(Boolean.TRUE, rules.match("out", true));
+        assertEquals(Boolean.TRUE, rules.match("module/out", true));
+        assertNull(rules.match("out", false));
+    }
+
+    @Test
+    void doubleStar() {
+        IgnoreRules rules = rules("**/generated", "logs/**", "a/**/b");
+        assertEquals(Boolean.TRUE, rules.match("generated", true));
+        assertEquals(Boolean.TRUE, rules.match("x/y/generated", true));
+        assertEquals(Boolean.TRUE, rules.match("logs/today/app.log", false));
+        assertNull(rules.match("logs", true));
+        assertEquals(Boolean.TRUE, rules.match("a/b", true));
+        assertEquals(Boolean.TRUE, rules.match("a/x/y/b", true));
+    }
+
+    @Test
+    void wildcardsDoNotCrossSlashes() {
+        IgnoreRules rules = rules("src/*.tmp", "file?.txt");
+        assertEquals(Boolean.TRUE, rules.match("src/a.tmp", false));
+        assertNull(rules.match("src/a/b.tmp", false));
+        assertEquals(Boolean.TRUE, rules.match("file1.txt", false));
+        assertNull(rules.match("file12.txt", false));
+        assertNull(rules.match("file/.txt", false));
+    }
+
+    @Test
+    void characterClasses() {
+        IgnoreRules rules = rules("*.[oa]", "test[!0-9].txt", "broken[");
+        assertEquals(Boolean.TRUE, rules.match("lib.o", false));
+        assertEquals(Boolean.TRUE, rules.match("lib.a", false));
+        assertNull(rules.match("lib.so", false));
+        assertEquals(Boolean.TRUE, rules.match("testx.txt", false));
+        assertNull(rules.match("test1.txt", false));
+        assertEquals(Boolean.TRUE, rules.match("broken[", false));
+    }
+
+    @Test
+    void lastMatchingRuleWins() {
+        IgnoreRules rules = rules("*.log", "!keep.log");
+        assertEquals(Boolean.FALSE, rules.match("keep.log", false));
+        assertEquals(Boolean.TRUE, rules.match("other.log", false));
+
+        IgnoreRules combined = IgnoreRules.combine(rules("!*.iml"), rules("*.iml"));
+        assertEquals(Boolean.TRUE, combined.match("app.iml", false));
+    }
+
+    @Test
+    void commentsBlankLinesAndEscapes() {
+        assertTrue(rules("# comment", "", "   ").isEmpty());
+        IgnoreRules rules = rules("\\#notes", "\\!important", "trailing   ", "escaped\\ ");
+        assertEquals(Boolean.TRUE, rules.match("#notes", false));
+        assertEquals(Boolean.TRUE, rules.match("!important", false));
+        assertEquals(Boolean.TRUE, rules.match("trailing", false));
+        assertEquals(Boolean.TRUE, rules.match("escaped ", false));
+    }
+
+    @Test
+    void regexCharactersAreLiteral() {
+        IgnoreRules rules = rules("a+b(1).txt");
+        assertEquals(Boolean.TRUE, rules.match("a+b(1).txt", false));
+        assertNull(rules.match("aab1.txt", false));
+    }
+}
@@ -0,0 +1,107 @@
+package de.hype;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexSnapshotTest {
+    private static final Path PROJECT = Paths.get("/home/user/IdeaProjects/app");
+
+    private static byte[] sample() throws IOException {
+        Map<Path, Long> directories = new LinkedHashMap<>();
+        directories.put(PROJECT.resolve("src/main/java"), 1_700_000_000_000L);
+        directories.put(PROJECT.resolve("src/main"), 0L);
+        directories.put(PROJECT.resolve("src/main/resources/ümlaut"), Long.MAX_VALUE);
+        List<Path> files = List.of(
+                PROJECT.resolve("src/main/java/de/App.java"),
+                PROJECT.resolve("src/main/java/de/AppTest.java"),
+                PROJECT.resolve("src/main/resources/application.yml"),
+                PROJECT.resolve("README.md"));
+        return IndexSnapshot.encode(PROJECT, directories, files);
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        IndexSnapshot.Contents contents = IndexSnapshot.decode(ByteBuffer.wrap(sample()));
+        assertNotNull(contents);
+        assertEquals(PROJECT, contents.projectPath());
+        assertEquals(Map.of(
+                PROJECT.resolve("src/main/java"), 1_700_000_000_000L,
+                PROJECT.resolve("src/main"), 0L,
+                PROJECT.resolve("src/main/resources/ümlaut"), Long.MAX_VALUE), contents.directories());
+        assertEquals(new HashSet<>(List.of(
+                PROJECT.resolve("src/main/java/de/App.java"),
+                PROJECT.resolve("src/main/java/de/AppTest.java"),
+                PROJECT.resolve("src/main/resources/application.yml"),
+                PROJECT.resolve("README.md"))), new HashSet<>(contents.files()));
+    }
+
+    @Test
+    void emptyIndex() throws IOException {
+        IndexSnapshot.Contents contents = IndexSnapshot.decode(ByteBuffer.wrap(IndexSnapshot.encode(PROJECT, Map.of(), List.of())));
+        assertNotNull(contents);
+        assertTrue(contents.directories().isEmpty());
+        assertTrue(contents.files().isEmpty());
+    }
+
+    @Test
+    void otherFormatOrVersionIsIgnored() throws IOException {
+        byte[] bytes = sample();
+        bytes[0] ^= 1;
+        assertNull(IndexSnapshot.decode(ByteBuffer.wrap(bytes)));
+        bytes = sample();
+        bytes[7]++;
+        assertNull(IndexSnapshot.decode(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    void truncatedSnapshotFails() throws IOException {
+        byte[] bytes = sample();
+        for (int length = 0; length < bytes.length; length++) {
+            ByteBuffer truncated = ByteBuffer.wrap(bytes, 0, length);
+            assertThrows(RuntimeException.class, () -> IndexSnapshot.decode(truncated), "length " + length);
+        }
+        assertThrows(BufferUnderflowException.class, () -> IndexSnapshot.decode(ByteBuffer.wrap(bytes, 0, 4)));
+    }
+
+    @Test
+    void corruptBytesNeverAllocateHugeArrays() throws IOException {
+        byte[] original = sample();
+        // every single byte flipped to every value must either decode or fail with a RuntimeException, never an Error
+        for (int i = 8; i < original.length; i++) {
+            for (int value = 0; value < 256; value++) {
+                byte[] bytes = original.clone();
+                bytes[i] = (byte) value;
+                try {
+                    IndexSnapshot.decode(ByteBuffer.wrap(bytes));
+                } catch (RuntimeException expected) {
+                }
+            }
+        }
+    }
+
+    @Test
+    void hugeCountIsRejected() throws IOException {
+        byte[] bytes = IndexSnapshot.encode(PROJECT, Map.of(), List.of());
+        // replace the directory count (the last but one byte) with a varint of Integer.MAX_VALUE
+        byte[] corrupt = new byte[bytes.length - 2 + 5 + 1];
+        System.arraycopy(bytes, 0, corrupt, 0, bytes.length - 2);
+        int offset = bytes.length - 2;
+        corrupt[offset] = (byte) 0xFF;
+        corrupt[offset + 1] = (byte) 0xFF;
+        corrupt[offset + 2] = (byte) 0xFF;
+        corrupt[offset + 3] = (byte) 0xFF;
+        corrupt[offset + 4] = (byte) 0x07;
+        assertThrows(IllegalArgumentException.class, () -> IndexSnapshot.decode(ByteBuffer.wrap(corrupt)));
+    }
+}
@@ -0,0 +1,24 @@
+package de.hype;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModuleModelTest {
+    @Test
+    void stripsLineAndBlockComments() {
+        assertEquals("include 'a' \n\ninclude 'c'", ModuleModel.stripComments("include 'a' // , 'b'\n/* include 'x'\n */\ninclude 'c'"));
+        assertEquals("a ", ModuleModel.stripComments("a /* unterminated"));
+    }
+
+    @Test
+    void keepsCommentMarkersInStrings() {
+        String settings = "includeBuild(\"https://example.com/a\")\ninclude(\"/*not*/\", 'it\\'s//ok')";
+        assertEquals(settings, ModuleModel.stripComments(settings));
+    }
+
+    @Test
+    void unterminatedStringEndsAtTheLine() {
+        assertEquals("x = \"open\ny = 1 ", ModuleModel.stripComments("x = \"open\ny = 1 // gone"));
+    }
+}
@@ -0,0 +1,64 @@
+package de.hype;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OpenHandlerTest {
+    @TempDir
+    Path project;
+
+    private void write(String relativePath, String content) throws IOException {
+        Path file = project.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    @BeforeEach
+    void createProject() throws IOException {
+        project = project.toRealPath();
+        write("core/src/main/java/de/app/Service.java", "package de.app;\nclass Service {}\n");
+        write("core/src/test/java/de/app/test/Service.java", "package de.app.test;\nclass Service {}\n");
+        write("web/src/main/kotlin/de/web/Routes.kt", "package de.web\n\nfun routes() {}\n");
+        write("scripts/Tool.java", "class Tool {}\n");
+    }
+
+    @AfterEach
+    void evict() {
+        ProjectIndex.evict(project);
+    }
+
+    @Test
+    void picksTheFileThatDeclaresThePackage() {
+        assertEquals("core/src/main/java/de/app/Service.java", OpenHandler.searchClassFile("de.app.Service", project));
+        assertEquals("core/src/test/java/de/app/test/Service.java", OpenHandler.searchClassFile("de.app.test.Service", project));
+        // answered from the resolved cache the second time
+        assertEquals("core/src/main/java/de/app/Service.java", OpenHandler.searchClassFile("de.app.Service", project));
+    }
+
+    @Test
+    void kotlinAndDefaultPackage() {
+        assertEquals("web/src/main/kotlin/de/web/Routes.kt", OpenHandler.searchClassFile("de.web.Routes", project));
+        assertEquals("scripts/Tool.java", OpenHandler.searchClassFile("Tool", project));
+    }
+
+    @Test
+    void unknownClasses() {
+        assertNull(OpenHandler.searchClassFile("de.other.Service", project));
+        assertNull(OpenHandler.searchClassFile("de.app.Missing", project));
+    }
+
+    @Test
+    void fileCreatedAfterTheIndexIsFoundByTheWalk() throws IOException {
+        assertNull(OpenHandler.searchClassFile("de.app.Later", project, false));
+        write("core/src/main/java/de/app/Later.java", "package de.app;\nclass Later {}\n");
+        assertEquals("core/src/main/java/de/app/Later.java", OpenHandler.searchClassFile("de.app.Later", project, true));
+    }
+}
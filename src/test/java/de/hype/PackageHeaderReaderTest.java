@@ -0,0 +1,96 @@
+package de.hype;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackageHeaderReaderTest {
+    @TempDir
+    Path dir;
+
+    private String read(String fileName, String content) throws IOException {
+        return read(fileName, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String fileName, byte[] content) throws IOException {
+        Path file = dir.resolve(fileName);
+        Files.write(file, content);
+        return PackageHeaderReader.readPackage(file);
+    }
+
+    @Test
+    void plainPackage() throws IOException {
+        assertEquals("de.hype", read("A.java", "package de.hype;\n\nclass A {}\n"));
+        assertEquals("de.hype", read("A.kt", "package de.hype\n\nclass A\n"));
+    }
+
+    @Test
+    void nameEndsAtTheLineEnd() throws IOException {
+        assertEquals("a.b.c", read("A.java", "package /* x */ a . b\t.c ;"));
+        assertEquals("a", read("A.kt", "package a\n.b"));
+    }
+
+    @Test
+    void defaultPackage() throws IOException {
+        assertEquals("", read("A.java", "import java.util.List;\nclass A {}\n"));
+        assertEquals("", read("A.java", "class A {}"));
+        assertEquals("", read("A.java", ""));
+        assertEquals("", read("A.java", "// only a comment"));
+    }
+
+    @Test
+    void licenseHeaderAndLineComments() throws IOException {
+        String header = "/*\n * Copyright package fake.one;\n */\n// package fake.two;\n";
+        assertEquals("real.pkg", read("A.java", header + "package real.pkg;\n"));
+    }
+
+    @Test
+    void byteOrderMark() throws IOException {
+        byte[] content = "package with.bom;".getBytes(StandardCharsets.UTF_8);
+        byte[] withBom = new byte[content.length + 3];
+        withBom[0] = (byte) 0xEF;
+        withBom[1] = (byte) 0xBB;
+        withBom[2] = (byte) 0xBF;
+        System.arraycopy(content, 0, withBom, 3, content.length);
+        assertEquals("with.bom", read("A.java", withBom));
+    }
+
+    @Test
+    void annotationsBeforeThePackage() throws IOException {
+        assertEquals("annotated", read("package-info.java",
+                "@Deprecated\n@SuppressWarnings({\"a)\", \"b\"})\n@javax.annotation.ParametersAreNonnullByDefault\npackage annotated;"));
+        assertEquals("kotlin.file", read("Util.kt",
+                "#!/usr/bin/env kotlin\n@file:JvmName(\"Util\")\n@file:[Suppress(\"UNUSED\") JvmMultifileClass]\npackage kotlin.file\n"));
+    }
+
+    @Test
+    void kotlinBlockCommentsNest() throws IOException {
+        assertEquals("nested", read("A.kt", "/* outer /* inner */ package wrong */\npackage nested\n"));
+        // in Java the first */ ends the comment
+        assertEquals("", read("A.java", "/* outer /* inner */ class A {} */\npackage wrong;"));
+    }
+
+    @Test
+    void kotlinEscapedIdentifiers() throws IOException {
+        assertEquals("a.fun.b", read("A.kt", "package a.`fun`.b\n"));
+    }
+
+    @Test
+    void headerLongerThanTheFirstRead() throws IOException {
+        String header = "/*\n" + " * long license text\n".repeat(2000) + " */\n";
+        assertTrue(header.length() > 8 * 1024);
+        assertEquals("after.license", read("A.java", header + "package after.license;\n"));
+    }
+
+    @Test
+    void headerLongerThanTheLimit() {
+        String header = "// padding\n".repeat(10_000);
+        assertThrows(IOException.class, () -> read("A.java", header + "package too.far;\n"));
+    }
+}
@@ -0,0 +1,59 @@
+package de.hype;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProjectIndexTest {
+    @TempDir
+    Path project;
+
+    @AfterEach
+    void evict() {
+        ProjectIndex.evict(project);
+    }
+
+    @Test
+    void subtreesAreContiguousInTreeOrder() {
+        NavigableSet<Path> paths = new TreeSet<>(ProjectIndex.TREE_ORDER);
+        for (String path : List.of("/p/a", "/p/a-2/x", "/p/a.bak", "/p/a/b/c", "/p/a/b", "/p/a0", "/p/ab", "/p")) {
+            paths.add(Paths.get(path));
+        }
+        assertEquals(List.of(Paths.get("/p/a"), Paths.get("/p/a/b"), Paths.get("/p/a/b/c")), ProjectIndex.removeTree(paths, Paths.get("/p/a")));
+        assertEquals(List.of(Paths.get("/p"), Paths.get("/p/a-2/x"), Paths.get("/p/a.bak"), Paths.get("/p/a0"), Paths.get("/p/ab")), List.copyOf(paths));
+        assertEquals(List.of(), ProjectIndex.removeTree(paths, Paths.get("/p/missing")));
+    }
+
+    @Test
+    void pathDeletedOnlyDropsTheSubtree() throws IOException {
+        project = project.toRealPath();
+        for (String file : List.of("a/src/main/java/x/Foo.java", "a-2/src/main/java/x/Foo.java", "a/src/main/resources/app.yml", "b/Bar.kt")) {
+            Path path = project.resolve(file);
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, "package x;");
+        }
+        ProjectIndex index = ProjectIndex.get(project);
+        assertEquals(2, index.getCandidates("Foo").size());
+
+        index.pathDeleted(project.resolve("a"));
+        assertEquals(List.of(project.resolve("a-2/src/main/java/x/Foo.java")), index.getCandidates("Foo"));
+        assertTrue(index.getIndexedFiles().stream().noneMatch(file -> file.startsWith(project.resolve("a"))));
+        assertTrue(index.getDirectoryMtimes().keySet().stream().noneMatch(dir -> dir.startsWith(project.resolve("a"))));
+        assertTrue(index.getDirectoryMtimes().containsKey(project.resolve("a-2")));
+
+        index.pathDeleted(project.resolve("b/Bar.kt"));
+        assertEquals(List.of(), index.getCandidates("Bar"));
+        index.addFile(project.resolve("b/Bar.kt"));
+        assertEquals(List.of(project.resolve("b/Bar.kt")), index.getCandidates("Bar"));
+    }
+}
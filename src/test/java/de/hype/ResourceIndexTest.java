@@ -0,0 +1,136 @@
+package de.hype;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResourceIndexTest {
+    private static final Path PROJECT = Paths.get("/projects/app");
+
+    private final ResourceIndex index = new ResourceIndex(PROJECT);
+
+    private static Set<Path> files(Map<ResourceIndex.Root, List<Path>> matches) {
+        Set<Path> files = new TreeSet<>();
+        matches.values().forEach(files::addAll);
+        return files;
+    }
+
+    @Test
+    void findsByWholeSegmentSuffix() {
+        Path welcome = PROJECT.resolve("src/main/resources/templates/mail/welcome.html");
+        Path otherWelcome = PROJECT.resolve("src/main/resources/templates/web/welcome.html");
+        assertTrue(index.add(welcome));
+        assertTrue(index.add(otherWelcome));
+
+        assertEquals(Set.of(welcome, otherWelcome), files(index.findByPathSuffix("welcome.html")));
+        assertEquals(Set.of(welcome), files(index.findByPathSuffix("mail/welcome.html")));
+        assertEquals(Set.of(welcome), files(index.findByPathSuffix("templates/./mail//welcome.html")));
+        assertEquals(Set.of(welcome), files(index.findByPathSuffix("/templates/mail/welcome.html")));
+        assertTrue(index.findByPathSuffix("come.html").isEmpty());
+        assertTrue(index.findByPathSuffix("other/welcome.html").isEmpty());
+        // the path is relative to the resource root, the root itself is not part of it
+        assertTrue(index.findByPathSuffix("resources/templates/mail/welcome.html").isEmpty());
+        assertTrue(index.findByPathSuffix("").isEmpty());
+    }
+
+    @Test
+    void matchesAreGroupedByRootAndSorted() {
+        Path b = PROJECT.resolve("core/src/main/resources/b/app.yml");
+        Path a = PROJECT.resolve("core/src/main/resources/a/app.yml");
+        index.add(b);
+        index.add(a);
+        ResourceIndex.Root root = new ResourceIndex.Root(PROJECT.resolve("core/src/main/resources"), ResourceType.MAIN_RESOURCE, PROJECT.resolve("core"));
+        assertEquals(List.of(a, b), index.findByPathSuffix("app.yml").get(root));
+    }
+
+    @Test
+    void removedFilesLeaveTheTrie() {
+        Path kept = PROJECT.resolve("src/main/resources/keep/config.xml");
+        Path removed = PROJECT.resolve("src/main/resources/drop/config.xml");
+        index.add(kept);
+        index.add(removed);
+
+        index.removeTree(PROJECT.resolve("src/main/resources/drop"));
+        assertEquals(Set.of(kept), files(index.findByPathSuffix("config.xml")));
+        assertTrue(index.findByPathSuffix("drop/config.xml").isEmpty());
+
+        index.removeTree(PROJECT.resolve("src"));
+        assertTrue(index.findByPathSuffix("config.xml").isEmpty());
+
+        index.add(removed);
+        assertEquals(Set.of(removed), files(index.findByPathSuffix("drop/config.xml")));
+    }
+
+    @Test
+    void rootsAndTypes() {
+        Path main = PROJECT.resolve("core/src/main/resources/app.yml");
+        Path test = PROJECT.resolve("core/src/test/resources/app.yml");
+        assertTrue(index.add(main));
+        assertTrue(index.add(test));
+
+        ResourceIndex.Root mainRoot = new ResourceIndex.Root(PROJECT.resolve("core/src/main/resources"), ResourceType.MAIN_RESOURCE, PROJECT.resolve("core"));
+        ResourceIndex.Root testRoot = new ResourceIndex.Root(PROJECT.resolve("core/src/test/resources"), ResourceType.TEST_RESOURCE, PROJECT.resolve("core"));
+        assertEquals(Set.of(main), index.getFiles(mainRoot));
+        assertEquals(Set.of(test), index.getFiles(testRoot));
+
+        Map<ResourceType, List<ResourceIndex.Root>> roots = index.getRoots(Set.of(PROJECT.resolve("core")));
+        // a directory that is a root by name and by module is listed once per type
+        assertEquals(List.of(mainRoot.dir()), roots.get(ResourceType.MAIN_RESOURCE).stream().map(ResourceIndex.Root::dir).toList());
+        assertEquals(List.of(testRoot.dir()), roots.get(ResourceType.TEST_RESOURCE).stream().map(ResourceIndex.Root::dir).toList());
+    }
+
+    @Test
+    void rootsAreInPathOrder() {
+        index.add(PROJECT.resolve("b/src/main/resources/x.txt"));
+        index.add(PROJECT.resolve("a/src/main/resources/x.txt"));
+        index.add(PROJECT.resolve("c/src/main/resources/x.txt"));
+        List<ResourceIndex.Root> roots = index.getRoots(Set.of(PROJECT.resolve("a"), PROJECT.resolve("b"), PROJECT.resolve("c"))).get(ResourceType.MAIN_RESOURCE);
+        for (int i = 1; i < roots.size(); i++) {
+            assertTrue(roots.get(i - 1).dir().compareTo(roots.get(i).dir()) <= 0, roots.toString());
+        }
+    }
+
+    @Test
+    void filesOutsideResourceRootsAreNotIndexed() {
+        assertFalse(index.add(PROJECT.resolve("src/main/java/de/App.java")));
+        assertTrue(index.getIndexedFiles().isEmpty());
+    }
+
+    @Test
+    void addingTwiceIsANoOp() {
+        Path file = PROJECT.resolve("src/main/resources/a.txt");
+        assertTrue(index.add(file));
+        assertFalse(index.add(file));
+        assertEquals(Set.of(file), index.getIndexedFiles());
+    }
+
+    @Test
+    void buildFiles() {
+        assertTrue(index.add(PROJECT.resolve("pom.xml")));
+        assertTrue(index.add(PROJECT.resolve("core/build.gradle.kts")));
+        assertFalse(index.add(PROJECT.resolve("a/b/c/pom.xml")));
+        assertEquals(Set.of(PROJECT, PROJECT.resolve("core")), index.getBuildFileDirectories());
+    }
+
+    @Test
+    void removeTree() {
+        Path kept = PROJECT.resolve("src/main/resources/keep/config.xml");
+        Path removed = PROJECT.resolve("src/main/resources/drop/config.xml");
+        index.add(kept);
+        index.add(removed);
+
+        index.removeTree(PROJECT.resolve("src/main/resources/drop"));
+        assertEquals(Set.of(kept), index.getIndexedFiles());
+
+        index.removeTree(PROJECT.resolve("src"));
+        assertTrue(index.getIndexedFiles().isEmpty());
+        assertTrue(index.add(removed));
+    }
+}
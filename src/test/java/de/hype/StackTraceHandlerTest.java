@@ -0,0 +1,74 @@
+package de.hype;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.regex.Matcher;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StackTraceHandlerTest {
+    private static StackTraceHandler.Frame frame(String line) {
+        Matcher matcher = StackTraceHandler.FRAME.matcher(line);
+        if (!matcher.matches()) return null;
+        return new StackTraceHandler.Frame(matcher.group(2), matcher.group(4), matcher.group(5));
+    }
+
+    @Test
+    void plainFrame() {
+        StackTraceHandler.Frame frame = frame("\tat de.hype.OpenHandler.handle(OpenHandler.java:42)");
+        assertEquals(new StackTraceHandler.Frame("de.hype.OpenHandler", "OpenHandler.java", "42"), frame);
+        assertEquals("de.hype.OpenHandler", StackTraceHandler.lookupName(frame));
+    }
+
+    @Test
+    void moduleAndClassLoaderPrefixes() {
+        assertEquals(new StackTraceHandler.Frame("java.lang.Thread", "Thread.java", "1583"),
+                frame("    at java.base/java.lang.Thread.run(Thread.java:1583)"));
+        assertEquals(new StackTraceHandler.Frame("com.example.Service", "Service.java", "7"),
+                frame("at app//com.example.Service.call(Service.java:7)"));
+        assertEquals(new StackTraceHandler.Frame("org.Foo", "Foo.java", "1"),
+                frame("at jdk.internal.loader/lib@1.2.3/org.Foo.bar(Foo.java:1)"));
+    }
+
+    @Test
+    void innerClassesAndLambdasResolveToTheFile() {
+        StackTraceHandler.Frame frame = frame("at de.hype.Main$Inner.lambda$run$0(Main.java:12)");
+        assertEquals("de.hype.Main$Inner", frame.className());
+        assertEquals("de.hype.Main", StackTraceHandler.lookupName(frame));
+        // Kotlin top level functions live in a FileKt class
+        assertEquals("de.hype.Utils", StackTraceHandler.lookupName(frame("at de.hype.UtilsKt.helper(Utils.kt:3)")));
+        assertEquals("de.hype.Init", StackTraceHandler.lookupName(frame("at de.hype.Init.<clinit>(Init.java:5)")));
+    }
+
+    @Test
+    void framesWithoutLineNumbers() {
+        StackTraceHandler.Frame unknown = frame("at de.hype.Outer$1.run(Unknown Source)");
+        assertEquals(new StackTraceHandler.Frame("de.hype.Outer$1", "Unknown Source", null), unknown);
+        assertEquals("de.hype.Outer", StackTraceHandler.lookupName(unknown));
+        StackTraceHandler.Frame nativeMethod = frame("at java.lang.Object.wait(Native Method)");
+        assertEquals("java.lang.Object", StackTraceHandler.lookupName(nativeMethod));
+    }
+
+    @Test
+    void defaultPackageResolvesToTheFileName() {
+        assertEquals("Main", StackTraceHandler.lookupName(frame("at Main.main(Main.java:3)")));
+        assertEquals("Main", StackTraceHandler.lookupName(frame("at Main$1.run(Main.java:7)")));
+        assertEquals("Tool", StackTraceHandler.lookupName(frame("at ToolKt.main(Tool.kt:1)")));
+        assertEquals("Main", StackTraceHandler.lookupName(frame("at Main$Inner.run(Unknown Source)")));
+    }
+
+    @Test
+    void trailingTextIsKept() {
+        Matcher matcher = StackTraceHandler.FRAME.matcher("\tat a.B.c(B.java:1) ~[b.jar:1.0]");
+        assertTrue(matcher.matches());
+        assertEquals(" ~[b.jar:1.0]", matcher.group(6));
+    }
+
+    @Test
+    void otherLinesDoNotMatch() {
+        assertNull(frame("java.lang.IllegalStateException: at a.B.c(B.java:1)"));
+        assertNull(frame("Caused by: java.io.IOException: boom"));
+        assertNull(frame("\t... 12 more"));
+        assertNull(frame("at a.B.c(B.java:12345678901)"));
+    }
+}
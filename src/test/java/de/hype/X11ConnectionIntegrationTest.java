@@ -0,0 +1,103 @@
+package de.hype;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Talks to a real X server. Skipped when Xvfb is not installed.
+ */
+class X11ConnectionIntegrationTest {
+    private static Process xvfb;
+    private static String display;
+
+    @BeforeAll
+    static void startXvfb() throws IOException {
+        Path binary = findOnPath("Xvfb");
+        assumeTrue(binary != null, "Xvfb is not installed");
+        // -displayfd picks a free display and prints its number
+        xvfb = new ProcessBuilder(binary.toString(), "-displayfd", "1", "-nolisten", "tcp", "-screen", "0", "640x480x24")
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(xvfb.getInputStream(), StandardCharsets.US_ASCII));
+        String number = out.readLine();
+        assertNotNull(number, "Xvfb did not start");
+        display = ":" + number.trim();
+    }
+
+    @AfterAll
+    static void stopXvfb() throws InterruptedException {
+        if (xvfb == null) return;
+        xvfb.destroy();
+        xvfb.waitFor(5, TimeUnit.SECONDS);
+    }
+
+    private static Path findOnPath(String name) {
+        String path = System.getenv("PATH");
+        if (path == null) return null;
+        for (String dir : path.split(File.pathSeparator)) {
+            Path candidate = Paths.get(dir, name);
+            if (Files.isExecutable(candidate)) return candidate;
+        }
+        return null;
+    }
+
+    @Test
+    void internAtoms() throws IOException {
+        try (X11Connection x11 = X11Connection.open(display)) {
+            assertNotEquals(0, x11.getRootWindow());
+            // predefined atom
+            assertEquals(39, x11.atom("WM_NAME"));
+            int activeWindow = x11.atom("_NET_ACTIVE_WINDOW");
+            assertTrue(activeWindow > 68);
+            assertEquals(activeWindow, x11.internAtom("_NET_ACTIVE_WINDOW").join());
+            assertEquals("_NET_ACTIVE_WINDOW", x11.atomName(activeWindow));
+        }
+    }
+
+    @Test
+    void readRootProperty() throws IOException {
+        try (X11Connection x11 = X11Connection.open(display)) {
+            // no window manager runs on the fresh server
+            X11Connection.Property clients = x11.getProperty(x11.getRootWindow(), "_NET_CLIENT_LIST").orTimeout(5, TimeUnit.SECONDS).join();
+            assertFalse(clients.exists());
+            assertEquals(0, clients.asInts().length);
+        }
+    }
+
+    @Test
+    void activeWindowMessageReachesRootListeners() throws Exception {
+        try (X11Connection listener = X11Connection.open(display); X11Connection sender = X11Connection.open(display)) {
+            CompletableFuture<ByteBuffer> received = new CompletableFuture<>();
+            listener.setEventListener(received::complete);
+            listener.selectInput(listener.getRootWindow(), X11Connection.SUBSTRUCTURE_NOTIFY_MASK);
+            // a round trip makes sure the server has processed the selectInput
+            listener.atom("_NET_ACTIVE_WINDOW");
+
+            sender.sendClientMessage(0x1234, "_NET_ACTIVE_WINDOW", 2, 0, 0);
+
+            ByteBuffer event = received.get(5, TimeUnit.SECONDS);
+            // ClientMessage, with the bit for events sent by SendEvent
+            assertEquals(33, event.get(0) & 0x7f);
+            assertEquals(32, event.get(1));
+            assertEquals(0x1234, event.getInt(4));
+            assertEquals(sender.atom("_NET_ACTIVE_WINDOW"), event.getInt(8));
+            assertEquals(2, event.getInt(12));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package de.hype;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class X11ConnectionTest {
+    @Test
+    void padToFourBytes() {
+        assertEquals(0, X11Connection.pad(0));
+        assertEquals(4, X11Connection.pad(1));
+        assertEquals(4, X11Connection.pad(4));
+        assertEquals(8, X11Connection.pad(5));
+    }
+
+    @Test
+    void requestHeader() {
+        ByteBuffer request = X11Connection.request((byte) 20, 1, 24);
+        assertEquals(ByteOrder.LITTLE_ENDIAN, request.order());
+        assertEquals(24, request.capacity());
+        assertEquals(4, request.position());
+        assertEquals(20, request.get(0));
+        assertEquals(1, request.get(1));
+        // length in 4 byte units
+        assertEquals(6, request.getShort(2));
+    }
+
+    @Test
+    void internAtomRequest() {
+        ByteBuffer request = X11Connection.internAtomRequest("_NET_WM_NAME");
+        assertEquals(request.capacity(), request.position());
+        request.flip();
+        assertEquals(20, request.remaining());
+        assertEquals(16, request.get());
+        assertEquals(0, request.get()); // only-if-exists false
+        assertEquals(5, request.getShort());
+        assertEquals(12, request.getShort());
+        assertEquals(0, request.getShort());
+        byte[] name = new byte[12];
+        request.get(name);
+        assertEquals("_NET_WM_NAME", new String(name, StandardCharsets.ISO_8859_1));
+        assertFalse(request.hasRemaining());
+    }
+
+    @Test
+    void propertyAsInts() {
+        byte[] value = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putInt(0x04200001).putInt(-1).array();
+        assertArrayEquals(new int[]{0x04200001, -1}, new X11Connection.Property(6, 32, value).asInts());
+        assertArrayEquals(new int[0], new X11Connection.Property(31, 8, value).asInts());
+    }
+
+    @Test
+    void propertyAsStrings() {
+        // WM_CLASS: instance and class, each null terminated
+        X11Connection.Property wmClass = new X11Connection.Property(31, 8, "jetbrains-idea\0jetbrains-idea\0".getBytes(StandardCharsets.ISO_8859_1));
+        assertEquals(List.of("jetbrains-idea", "jetbrains-idea"), wmClass.asStrings(false));
+        assertEquals("jetbrains-idea", wmClass.asString(false));
+
+        X11Connection.Property title = new X11Connection.Property(1, 8, "app – Main.java".getBytes(StandardCharsets.UTF_8));
+        assertEquals(List.of("app – Main.java"), title.asStrings(true));
+        assertEquals(List.of("a", "", "b"), new X11Connection.Property(31, 8, "a\0\0b".getBytes(StandardCharsets.ISO_8859_1)).asStrings(false));
+
+        X11Connection.Property missing = new X11Connection.Property(0, 0, new byte[0]);
+        assertFalse(missing.exists());
+        assertEquals(List.of(), missing.asStrings(true));
+        assertEquals("", missing.asString(true));
+    }
+}